@@ -20,6 +20,13 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.gameontext.room.engine.meta.ExitDesc;
 import org.gameontext.room.engine.sample.SampleDataProvider;
@@ -31,6 +38,14 @@ public class Engine {
     // eventually we'll let this be customizable..
     private DataProvider dp = new SampleDataProvider();
 
+    // shared by all the rooms running in single writer mode, each room only
+    // ever has one task on it at a time.
+    private ExecutorService roomExecutor;
+
+    // holds the timed events for every room, a single thread is plenty as
+    // the events themselves are handed to the rooms to run.
+    private ScheduledExecutorService roomScheduler;
+
     private Engine() {
     }
 
@@ -43,6 +58,39 @@ public class Engine {
         return Collections.unmodifiableCollection(dp.getRooms());
     }
 
+    public synchronized Executor getRoomExecutor() {
+        if (roomExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            roomExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "room-worker-" + count.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return roomExecutor;
+    }
+
+    public synchronized ScheduledExecutorService getRoomScheduler() {
+        if (roomScheduler == null) {
+            ScheduledThreadPoolExecutor ses = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "room-scheduler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            // don't keep cancelled events hanging around until they are due.
+            ses.setRemoveOnCancelPolicy(true);
+            roomScheduler = ses;
+        }
+        return roomScheduler;
+    }
+
     /**
      * Console based test rig.
      */
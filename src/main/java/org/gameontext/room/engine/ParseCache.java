@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import javax.enterprise.inject.spi.CDI;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.gameontext.room.Log;
+import org.gameontext.room.engine.parser.CommandHandler;
+import org.gameontext.room.engine.parser.CommandTokens;
+import org.gameontext.room.engine.parser.MatchResult;
+
+/**
+ * Remembers how recent commands matched a handler's templates.
+ *
+ * Entries are keyed by the words of the command, the handler, the user, and
+ * the content versions of the user's inventory and of the room. Anything that
+ * could change what a command matches moves one of those versions on, so a
+ * stale entry is simply never looked up again, and ages out of the cache.
+ */
+public class ParseCache {
+
+    private static final class Key {
+        final String command;
+        final CommandHandler handler;
+        final String userId;
+        final long inventoryVersion;
+        final long roomVersion;
+        final int hash;
+
+        Key(String command, CommandHandler handler, String userId, long inventoryVersion, long roomVersion) {
+            this.command = command;
+            this.handler = handler;
+            this.userId = userId;
+            this.inventoryVersion = inventoryVersion;
+            this.roomVersion = roomVersion;
+            int h = command.hashCode();
+            h = 31 * h + System.identityHashCode(handler);
+            h = 31 * h + (userId != null ? userId.hashCode() : 0);
+            h = 31 * h + Long.hashCode(inventoryVersion);
+            h = 31 * h + Long.hashCode(roomVersion);
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hash == k.hash && handler == k.handler && inventoryVersion == k.inventoryVersion
+                    && roomVersion == k.roomVersion && command.equals(k.command)
+                    && (userId == null ? k.userId == null : userId.equals(k.userId));
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, MatchResult> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ParseCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, MatchResult>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, MatchResult> eldest) {
+                if (size() > ParseCache.this.capacity) {
+                    evictions++;
+                    Metrics.evicted();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Match the command from word pos against the handler's templates, using
+     * the result from last time if nothing has changed since.
+     */
+    public MatchResult match(TemplateAutomaton automaton, CommandHandler handler, CommandTokens cmd, int pos,
+            Room room, String execBy) {
+        // read the versions before matching, if anything changes while we are
+        // matching, the entry goes in under the old versions and is never hit.
+        User u = room.getUserById(execBy);
+        long inventoryVersion = u != null ? u.inventory.getVersion() : -1;
+        Key key = new Key(normalize(cmd, pos), handler, execBy, inventoryVersion, room.getContentVersion());
+
+        MatchResult result;
+        synchronized (this) {
+            result = entries.get(key);
+            if (result != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (result != null) {
+            Metrics.hit();
+        } else {
+            Metrics.missed();
+        }
+        if (result != null) {
+            return result.forCommand(cmd);
+        }
+
+        result = automaton.match(cmd, pos, room, execBy);
+        synchronized (this) {
+            entries.put(key, result);
+        }
+        return result;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    // commands differing only in case or spacing match the same way.
+    private static String normalize(CommandTokens cmd, int pos) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = pos; i < cmd.size(); i++) {
+            if (i > pos) {
+                sb.append(' ');
+            }
+            sb.append(cmd.word(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse cache metrics, summed over every room. Registered with the
+     * application registry when there is one, so the console test rig still
+     * works without a container.
+     */
+    private static class Metrics {
+        private static final Counter hits;
+        private static final Counter misses;
+        private static final Counter evictions;
+
+        static {
+            Counter h = null;
+            Counter m = null;
+            Counter e = null;
+            try {
+                MetricRegistry registry = CDI.current().select(MetricRegistry.class).get();
+                h = registry.counter("room_parse_cache_hits");
+                m = registry.counter("room_parse_cache_misses");
+                e = registry.counter("room_parse_cache_evictions");
+            } catch (RuntimeException ex) {
+                Log.log(Level.FINE, ParseCache.class, "No metric registry available for parse cache metrics", ex);
+            }
+            hits = h;
+            misses = m;
+            evictions = e;
+        }
+
+        static void hit() {
+            if (hits != null) {
+                hits.inc();
+            }
+        }
+
+        static void missed() {
+            if (misses != null) {
+                misses.inc();
+            }
+        }
+
+        static void evicted() {
+            if (evictions != null) {
+                evictions.inc();
+            }
+        }
+    }
+}
@@ -15,34 +15,24 @@
  *******************************************************************************/
 package org.gameontext.room.engine;
 
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 
 import org.gameontext.room.engine.meta.ContainerDesc;
 import org.gameontext.room.engine.meta.ExitDesc;
 import org.gameontext.room.engine.meta.ItemDesc;
 import org.gameontext.room.engine.parser.CommandHandler;
-import org.gameontext.room.engine.parser.CommandTemplate;
-import org.gameontext.room.engine.parser.ContainerItem;
-import org.gameontext.room.engine.parser.Exit;
-import org.gameontext.room.engine.parser.InventoryItem;
-import org.gameontext.room.engine.parser.ItemInContainerItem;
-import org.gameontext.room.engine.parser.LinkWord;
+import org.gameontext.room.engine.parser.CommandTokens;
+import org.gameontext.room.engine.parser.MatchResult;
 import org.gameontext.room.engine.parser.Node;
 import org.gameontext.room.engine.parser.ParsedCommand;
-import org.gameontext.room.engine.parser.RoomItem;
-import org.gameontext.room.engine.parser.Verb;
 
 public class Parser {
 
-    protected static ItemDesc findItemInInventory(String cmd, String execBy, Room room) {
+    protected static ItemDesc findItemInInventory(CommandTokens cmd, int pos, String execBy, Room room) {
         User u = room.getUserById(execBy);
         if (u != null) {
-            String itemName = getItemNameFromCommand(cmd, room, u);
+            String itemName = getItemNameFromCommand(cmd, pos, room, u);
             for (ItemDesc item : u.inventory) {
                 if (item.name.equalsIgnoreCase(itemName)) {
                     return item;
@@ -52,10 +42,10 @@ public class Parser {
         return null;
     }
 
-    protected static ItemDesc findItemInRoom(String cmd, String execBy, Room room) {
+    protected static ItemDesc findItemInRoom(CommandTokens cmd, int pos, String execBy, Room room) {
         User u = room.getUserById(execBy);
         if (u != null) {
-            String itemName = getItemNameFromCommand(cmd, room, u);
+            String itemName = getItemNameFromCommand(cmd, pos, room, u);
             for (ItemDesc item : room.getItems()) {
                 if (item.name.equalsIgnoreCase(itemName)) {
                     return item;
@@ -65,10 +55,10 @@ public class Parser {
         return null;
     }
 
-    protected static ItemDesc[] findItemInContainerInInventoryOrRoom(String cmd, String execBy, Room room) {
+    protected static ItemDesc[] findItemInContainerInInventoryOrRoom(CommandTokens cmd, int pos, String execBy, Room room) {
         User u = room.getUserById(execBy);
         if (u != null) {
-            String itemName = getItemNameFromCommand(cmd, room, u);
+            String itemName = getItemNameFromCommand(cmd, pos, room, u);
             for (ItemDesc item : room.getItems()) {
                 if (item instanceof ContainerDesc) {
                     ContainerDesc box = (ContainerDesc) item;
@@ -94,10 +84,10 @@ public class Parser {
         return null;
     }
 
-    protected static ContainerDesc findContainerInInventoryOrRoom(String cmd, String execBy, Room room) {
+    protected static ContainerDesc findContainerInInventoryOrRoom(CommandTokens cmd, int pos, String execBy, Room room) {
         User u = room.getUserById(execBy);
         if (u != null) {
-            String itemName = getItemNameFromCommand(cmd, room, u);
+            String itemName = getItemNameFromCommand(cmd, pos, room, u);
             for (ItemDesc item : room.getItems()) {
                 if (item.name.equalsIgnoreCase(itemName) && item instanceof ContainerDesc) {
                     return (ContainerDesc) item;
@@ -113,307 +103,69 @@ public class Parser {
         return null;
     }
 
-    protected static ExitDesc findExitInRoom(String cmd, Room room) {
-        String exitName = getFirstWordFromCommand(cmd);
-        for (ExitDesc exit : room.getExits()) {
-            if (exit.getDirection().toString().equalsIgnoreCase(exitName)
-                    || exit.getDirection().toLongString().equalsIgnoreCase(exitName)) {
-                return exit;
-            }
-        }
-        return null;
-    }
-
-    protected static String removeWordFromCommand(String cmd, String word) {
-        String cmdWord = getFirstWordFromCommand(cmd);
-        if (word.equalsIgnoreCase(cmdWord)) {
-            return removeFirstWordFromCommand(cmd);
-        } else {
-            throw new IllegalArgumentException("Word " + cmdWord + " from command did not match requested word " + word);
-        }
-
-    }
-
-    protected static User findUserInRoom(String cmd, Room room) {
-        String username = getFirstWordFromCommand(cmd);
-        for (User u : room.getAllUsersInRoom()) {
-            if (u.username.toUpperCase().equals(username)) {
-                return u;
-            }
-        }
-        return null;
-    }
-
-    public static String removeFirstWordFromCommand(String cmd) {
-        Scanner s = new Scanner(cmd);
-        s.next();
-        StringBuilder builder = new StringBuilder();
-        boolean first = true;
-        while (s.hasNext()) {
-            if (!first)
-                builder.append(" ");
-            builder.append(s.next());
-            first = false;
-        }
-        s.close();
-        return builder.toString();
-    }
-
-    protected static String removeUserFromCommand(String cmd, User u) {
-        return removeFirstWordFromCommand(cmd);
-    }
-
-    protected static String removeVerbFromCommand(String cmd, String v) {
-        return removeFirstWordFromCommand(cmd);
-    }
-
-    protected static String removeExitFromCommand(String cmd, ExitDesc e) {
-        return removeFirstWordFromCommand(cmd);
+    protected static ExitDesc findExitInRoom(CommandTokens cmd, int pos, Room room) {
+        return room.findExit(cmd.word(pos));
     }
 
-    protected static String removeItemFromCommand(String cmd, ItemDesc item) {
-        Scanner s = new Scanner(cmd);
-        StringBuilder builder = new StringBuilder();
-        boolean first = true;
-        while (s.hasNext()) {
-            if (!first)
-                builder.append(" ");
-            builder.append(s.next().toUpperCase());
-            if (builder.toString().equals(item.name.toUpperCase())) {
-                builder = new StringBuilder();
-            }
-            first = false;
-        }
-        s.close();
-        return builder.toString();
+    protected static User findUserInRoom(CommandTokens cmd, int pos, Room room) {
+        return room.getUserByName(cmd.word(pos));
     }
 
-    protected static String getItemNameFromCommand(String cmd, Room room, User execBy) {
-        List<String> allItems = new ArrayList<String>();
-        for (ItemDesc item : room.getItems()) {
-            allItems.add(item.name.trim().toUpperCase());
-            if (item instanceof ContainerDesc) {
-                ContainerDesc box = (ContainerDesc) item;
-                for (ItemDesc boxItem : box.items) {
-                    allItems.add(boxItem.name.trim().toUpperCase());
-                }
-            }
-        }
-        for (ItemDesc item : execBy.inventory) {
-            allItems.add(item.name.trim().toUpperCase());
-            if (item instanceof ContainerDesc) {
-                ContainerDesc box = (ContainerDesc) item;
-                for (ItemDesc boxItem : box.items) {
-                    allItems.add(boxItem.name.trim().toUpperCase());
-                }
-            }
+    protected static String getItemNameFromCommand(CommandTokens cmd, int pos, Room room, User execBy) {
+        // the room and inventory each keep an index of the names they hold
+        // (including the contents of containers), so we just take whichever
+        // gives the longer match.
+        String inRoom = room.getItems().longestMatch(cmd, pos);
+        String inInventory = execBy.inventory.longestMatch(cmd, pos);
+        if (inRoom == null) {
+            return inInventory;
         }
-        // sort so we process longer item names first =)
-        Collections.sort(allItems, new Comparator<String>() {
-            @Override
-            public int compare(String o1, String o2) {
-                int o1len = o1.length();
-                int o2len = o2.length();
-                if (o1len > o2len) {
-                    return -1;
-                } else if (o1len < o2len) {
-                    return 1;
-                } else
-                    return o1.compareTo(o2);
-            }
-        });
-        String uCmd = cmd.toUpperCase();
-        for (String item : allItems) {
-            if (uCmd.startsWith(item))
-                return item;
-        }
-        return null;
-    }
-
-    protected static String getFirstWordFromCommand(String cmd) {
-        Scanner s = new Scanner(cmd);
-        String result = null;
-        if (s.hasNext()) {
-            result = s.next().trim().toUpperCase();
+        if (inInventory == null || inRoom.length() >= inInventory.length()) {
+            return inRoom;
         }
-        s.close();
-        return result;
+        return inInventory;
     }
 
-    public static void parseInput(Map<String, CommandHandler> commands, String s, Room room, String execBy) {
-        // do parse, create ParsedCommand to return, or throw exception.
-
-        // backup original user command for reference.
-        String origCmd = s;
+    public static MatchResult parseInput(Map<String, CommandHandler> commands, String s, Room room, String execBy) {
+        // split the command into words once, everything after this point
+        // works with a cursor into these.
+        CommandTokens cmd = new CommandTokens(s);
 
         // all verbs must be single words.
         // parse in first word..
-        String first = getFirstWordFromCommand(s);
+        String first = cmd.word(0);
 
         // lookup matching handlers & templates from the map
-        CommandHandler h = commands.get(first);
-        if (h != null) {
-
-            boolean result = processCommandHandler(h, origCmd, room, execBy);
-
-            if (!result) {
-                // verb was recognised, but no template matched..
-                h.processUnknown(room, execBy, origCmd, removeWordFromCommand(origCmd, first));
-            }
-        } else {
-            // command verb was unknown to map..
-            throw new RuntimeException("Unknown Command");
-        }
-    }
-
-    public static boolean processCommandHandler(CommandHandler h, String origCmd, Room room, String execBy) {
-        // try to parse the command using each template.
-        for (CommandTemplate t : h.getTemplates()) {
-            try {
-                String cmd = origCmd;
-                List<Node> parsed = new ArrayList<Node>();
-                for (CommandTemplate.ParseNode node : t.template) {
-                    switch (node.type) {
-                        case USER:
-                            cmd = processUserCommand(room, t, cmd, parsed);
-                            break;
-                        case EXIT:
-                            cmd = processExitCommand(room, t, cmd, parsed);
-                            break;
-                        case ROOM_ITEM:
-                            cmd = processRoomItemCommand(room, execBy, t, cmd, parsed);
-                            break;
-                        case INVENTORY_ITEM:
-                            cmd = processInventoryItemCommand(room, execBy, t, cmd, parsed);
-                            break;
-                        case CONTAINER_ITEM:
-                            cmd = processContainerItemCommand(room, execBy, t, cmd, parsed);
-                            break;
-                        case ITEM_INSIDE_CONTAINER_ITEM:
-                            cmd = processItemInsideContainerCommand(room, execBy, t, cmd, parsed);
-                            break;
-                        case VERB:
-                            cmd = processVerbCommand(cmd, parsed, node);
-                            break;
-                        case LINKWORD:
-                            cmd = processLinkWordCommand(cmd, parsed, node);
-                            break;
-                        default:
-                            break;
-                    }
-                }
-
-                // if we made it to here, then we just matched every part of
-                // a template..
-                // but .. is there more on the command we haven't looked at
-                // yet?
-                boolean complete = cmd.trim().length() == 0;
-                if (complete) {
-                    ParsedCommand p = new ParsedCommand(origCmd, parsed);
-                    h.processCommand(room, execBy, p);
-                    return true;
-                }
-
-            } catch (Exception e) {
-                // we couldn't match this template..
-                // ignore it.. maybe the next template will match
-            }
-        }
-        return false;
-    }
-
-    private static String processLinkWordCommand(String cmd, List<Node> parsed, CommandTemplate.ParseNode node) {
-        // if node.data doesn't match the word, we'll
-        // exception our way out of here.
-        cmd = removeWordFromCommand(cmd, node.data);
-        Node l = new LinkWord(node.data);
-        parsed.add(l);
-        return cmd;
-    }
-
-    private static String processVerbCommand(String cmd, List<Node> parsed, CommandTemplate.ParseNode node) {
-        // verb was already matched outside, so we can just
-        // eat it here.
-        cmd = removeVerbFromCommand(cmd, node.data);
-        Node v = new Verb(node.data);
-        parsed.add(v);
-        return cmd;
-    }
-
-    private static String processItemInsideContainerCommand(Room room, String execBy, CommandTemplate t, String cmd,
-            List<Node> parsed) {
-        ItemDesc iiitem[] = findItemInContainerInInventoryOrRoom(cmd, execBy, room);
-        if (iiitem != null) {
-            cmd = removeItemFromCommand(cmd, iiitem[0]);
-            Node n = new ItemInContainerItem((ContainerDesc) iiitem[1], iiitem[0]);
-            parsed.add(n);
-        } else {
-            throw new IllegalStateException("Unable to match room arg for template " + t.key);
-        }
-        return cmd;
-    }
-
-    private static String processContainerItemCommand(Room room, String execBy, CommandTemplate t, String cmd,
-            List<Node> parsed) {
-        ContainerDesc citem = findContainerInInventoryOrRoom(cmd, execBy, room);
-        if (citem != null) {
-            cmd = removeItemFromCommand(cmd, citem);
-            Node n = new ContainerItem(citem);
-            parsed.add(n);
-        } else {
-            throw new IllegalStateException("Unable to match room arg for template " + t.key);
-        }
-        return cmd;
-    }
-
-    private static String processInventoryItemCommand(Room room, String execBy, CommandTemplate t, String cmd,
-            List<Node> parsed) {
-        ItemDesc iitem = findItemInInventory(cmd, execBy, room);
-        if (iitem != null) {
-            cmd = removeItemFromCommand(cmd, iitem);
-            Node n = new InventoryItem(iitem);
-            parsed.add(n);
-        } else {
-            throw new IllegalStateException("Unable to match room arg for template " + t.key);
+        CommandHandler h = first != null ? commands.get(first) : null;
+        if (h == null) {
+            // command verb was unknown to map, leave it to the caller.
+            return MatchResult.failed(MatchResult.Failure.UNKNOWN_VERB, Collections.<Node>emptyList(), cmd, 0);
         }
-        return cmd;
-    }
 
-    private static String processRoomItemCommand(Room room, String execBy, CommandTemplate t, String cmd,
-            List<Node> parsed) {
-        ItemDesc ritem = findItemInRoom(cmd, execBy, room);
-        if (ritem != null) {
-            cmd = removeItemFromCommand(cmd, ritem);
-            Node n = new RoomItem(ritem);
-            parsed.add(n);
-        } else {
-            throw new IllegalStateException("Unable to match room arg for template " + t.key);
+        MatchResult result = processCommandHandler(h, cmd, 0, room, execBy);
+        if (!result.isMatch()) {
+            // verb was recognised, but no template matched..
+            h.processUnknown(room, execBy, s, cmd.text(1), result);
         }
-        return cmd;
+        return result;
     }
 
-    private static String processExitCommand(Room room, CommandTemplate t, String cmd, List<Node> parsed) {
-        ExitDesc exit = findExitInRoom(cmd, room);
-        if (exit != null) {
-            cmd = removeExitFromCommand(cmd, exit);
-            Node n = new Exit(exit);
-            parsed.add(n);
-        } else {
-            throw new IllegalStateException("Unable to match room arg for template " + t.key);
-        }
-        return cmd;
+    public static MatchResult processCommandHandler(CommandHandler h, String origCmd, Room room, String execBy) {
+        return processCommandHandler(h, new CommandTokens(origCmd), 0, room, execBy);
     }
 
-    private static String processUserCommand(Room room, CommandTemplate t, String cmd, List<Node> parsed) {
-        User user = findUserInRoom(cmd, room);
-        if (user != null) {
-            cmd = removeUserFromCommand(cmd, user);
-            Node n = new org.gameontext.room.engine.parser.User(user);
-            parsed.add(n);
-        } else {
-            throw new IllegalStateException("Unable to match room arg for template " + t.key);
+    public static MatchResult processCommandHandler(CommandHandler h, CommandTokens cmd, int pos, Room room,
+            String execBy) {
+        // walk the command through the compiled templates for the handler,
+        // the automaton hands back why nothing fitted rather than throwing.
+        // if the same command was matched since the room or the user's
+        // inventory last changed, the cache has the answer already.
+        MatchResult result = room.getParseCache().match(room.getTemplateAutomaton(h), h, cmd, pos, room, execBy);
+        if (result.isMatch()) {
+            String original = pos == 0 ? cmd.getCommand() : cmd.text(pos);
+            h.processCommand(room, execBy, new ParsedCommand(original, cmd, result.template, result.nodes));
         }
-        return cmd;
+        return result;
     }
 
 }
@@ -17,12 +17,16 @@ package org.gameontext.room.engine;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.gameontext.room.Log;
@@ -30,19 +34,62 @@ import org.gameontext.room.engine.meta.ContainerDesc;
 import org.gameontext.room.engine.meta.DoorDesc;
 import org.gameontext.room.engine.meta.ExitDesc;
 import org.gameontext.room.engine.meta.ItemDesc;
+import org.gameontext.room.engine.meta.ItemSet;
 import org.gameontext.room.engine.meta.RoomDesc;
 import org.gameontext.room.engine.parser.CommandHandler;
 import org.gameontext.room.engine.parser.CommandTemplate;
+import org.gameontext.room.engine.parser.MatchResult;
 
 public class Room {
 
+    // what a player is told when their command can't be handled at all.
+    public static final String UNKNOWN_COMMAND = "I'm sorry Dave, I don't know how to do that";
+
     public final String TOKEN_ID;
-    private Map<String, ExitDesc> exitMap;
+    // replaced whole when the exits change, so the maps in it always agree,
+    // whichever thread is reading them.
+    private volatile Exits exits = Exits.NONE;
+    private final Map<String, String> commandHelp;
     private RoomDesc roomDesc;
     private Map<String, User> userMap = new ConcurrentHashMap<String, User>();
+    // the users in the room by upper cased username, as commands name them.
+    private Map<String, User> usersByName = new ConcurrentHashMap<String, User>();
     private Map<String, CommandHandler> commandMap = new HashMap<String, CommandHandler>();
+    private Map<CommandHandler, TemplateAutomaton> automata = new ConcurrentHashMap<CommandHandler, TemplateAutomaton>();
     private Room.RoomResponseProcessor rrp = new DebugResponseProcessor();
 
+    // when set, every change to the room is made by a task drained from this
+    // mailbox, one at a time, instead of on whichever thread asked for it.
+    private volatile RoomMailbox mailbox;
+    // how many of this room's tasks the calling thread is inside of, so only
+    // the outermost one flushes when there is no mailbox.
+    private final ThreadLocal<int[]> depth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    // how many recent command matches to remember per room, unless told
+    // otherwise.
+    public static final int DEFAULT_PARSE_CACHE_SIZE = 256;
+    private volatile ParseCache parseCache = new ParseCache(DEFAULT_PARSE_CACHE_SIZE);
+
+    // bumped on any change to the items, containers, exits or users of the
+    // room, or to the inventory of any user in it.
+    private final AtomicLong contentVersion = new AtomicLong();
+    private final ItemSet.Listener contentListener = new ItemSet.Listener() {
+        @Override
+        public void itemAdded(ItemSet set, ItemDesc item) {
+            contentVersion.incrementAndGet();
+        }
+
+        @Override
+        public void itemRemoved(ItemSet set, ItemDesc item) {
+            contentVersion.incrementAndGet();
+        }
+    };
+
     public interface RoomResponseProcessor {
         // "Player message :: from("+senderId+")
         // onlyForSelf("+String.valueOf(selfMessage)+")
@@ -57,6 +104,29 @@ public class Room {
 
         public void exitEvent(String senderId, String exitMessage, String exitID, String exitJson);
 
+        // the room has finished handling a command or event, anything held
+        // back to be sent together can go now.
+        public void flush();
+
+    }
+
+    private static final class Exits {
+        static final Exits NONE = new Exits(Collections.<ExitDesc.Direction, ExitDesc> emptyMap(),
+                Collections.<String, ExitDesc> emptyMap(), Collections.<String, String> emptyMap());
+
+        final Map<ExitDesc.Direction, ExitDesc> byDirection;
+        // every name an exit can be given in a command, upper cased, eg. N
+        // and NORTH, so finding the exit a player means is a single lookup.
+        final Map<String, ExitDesc> aliases;
+        // what a look shows of the exits, only changes when they do.
+        final Map<String, String> forLook;
+
+        Exits(Map<ExitDesc.Direction, ExitDesc> byDirection, Map<String, ExitDesc> aliases,
+                Map<String, String> forLook) {
+            this.byDirection = byDirection;
+            this.aliases = aliases;
+            this.forLook = forLook;
+        }
     }
 
     public static class DebugResponseProcessor implements Room.RoomResponseProcessor {
@@ -94,29 +164,163 @@ public class Room {
         public void exitEvent(String senderId, String m, String id, String exitJson) {
             System.out.println("Exit succeeded : " + m + " to " + id);
         }
+
+        @Override
+        public void flush() {
+        }
     }
 
     public Room(RoomDesc r, List<CommandHandler> globalCommands) {
         roomDesc = r;
         for (CommandHandler c : globalCommands) {
+            c.checkCallbacks();
             for (CommandTemplate t : c.getTemplates()) {
                 CommandTemplate.ParseNode verb = t.template.get(0);
                 commandMap.put(verb.data.toUpperCase(), c);
             }
+            automata.put(c, new TemplateAutomaton(c));
+        }
+        Map<String, String> help = new HashMap<String, String>();
+        for (CommandHandler ch : commandMap.values()) {
+            if (!ch.isHidden()) {
+                String verb = ch.getTemplates().iterator().next().template.get(0).data.toLowerCase();
+                help.put("/" + verb, ch.getHelpText());
+            }
         }
+        commandHelp = Collections.unmodifiableMap(help);
+        // compile the use handlers for every item that can be found in the
+        // room, so the first 'use' doesn't pay for it.
+        for (ItemDesc item : r.defaultItems) {
+            compileUseHandler(item);
+            if (item instanceof ContainerDesc) {
+                for (ItemDesc boxItem : ((ContainerDesc) item).defaultItems) {
+                    compileUseHandler(boxItem);
+                }
+            }
+        }
+        r.items.addListener(contentListener);
         TOKEN_ID = r.id + "_token";     //the name that will be used to query JNDI to see if a token has been defined for this room
     }
 
-    public Map<String, String> getExitsMap(String senderId, Room room) {
-        Map<String, String> exitMap = new HashMap<String, String>();
-        for (ExitDesc e : this.exitMap.values()) {
-            exitMap.put(e.getDirection().toString().toLowerCase(), e.getDoorDescription());
+    private void compileUseHandler(ItemDesc item) {
+        if (item.useHandler != null && !automata.containsKey(item.useHandler)) {
+            item.useHandler.checkCallbacks();
+            automata.put(item.useHandler, new TemplateAutomaton(item.useHandler));
         }
-        return exitMap;
+    }
+
+    /**
+     * Obtain the compiled templates for a handler, compiling them now if the
+     * handler wasn't known when the room was built.
+     */
+    public TemplateAutomaton getTemplateAutomaton(CommandHandler handler) {
+        return automata.computeIfAbsent(handler, TemplateAutomaton::new);
+    }
+
+    /**
+     * @return a number that increases whenever anything that could change how
+     *         a command is parsed in this room changes.
+     */
+    public long getContentVersion() {
+        return contentVersion.get();
+    }
+
+    public ParseCache getParseCache() {
+        return parseCache;
+    }
+
+    /**
+     * Change how many recent command matches the room remembers, anything
+     * remembered so far is forgotten.
+     */
+    public void setParseCacheSize(int size) {
+        parseCache = new ParseCache(size);
+    }
+
+    /**
+     * Switch the room to single writer mode, where commands, arrivals,
+     * departures and timed events are queued to the room and run one at a
+     * time on threads from the given pool. Passing null switches back to
+     * running them on the calling thread.
+     */
+    public void setMailbox(Executor pool) {
+        this.mailbox = pool != null ? new RoomMailbox(this, pool) : null;
+    }
+
+    /**
+     * Run a task that changes the room. In single writer mode it is queued
+     * behind anything already waiting for the room, otherwise (or if we are
+     * already running a task for this room) it runs right away.
+     */
+    public void post(final Runnable task) {
+        RoomMailbox m = mailbox;
+        if (m != null) {
+            if (m.isDraining()) {
+                task.run();
+            } else {
+                // the mailbox flushes once it has run everything waiting.
+                m.execute(task);
+            }
+            return;
+        }
+        // once the outermost task is done, let the response processor know
+        // it can send anything it was holding back.
+        int[] d = depth.get();
+        d[0]++;
+        try {
+            task.run();
+        } finally {
+            if (--d[0] == 0) {
+                flushResponses();
+            }
+        }
+    }
+
+    /**
+     * Let the response processor know the room has finished what it was
+     * doing, so it can send anything it was holding back.
+     */
+    void flushResponses() {
+        try {
+            rrp.flush();
+        } catch (RuntimeException e) {
+            Log.log(Level.WARNING, this, "Failed to flush responses for room " + getRoomId(), e);
+        }
+    }
+
+    /**
+     * Run a task for the room after a delay, without tying up a thread while
+     * waiting. Further events can be chained on with
+     * {@link RoomTimer#then(long, TimeUnit, Runnable)}, and the whole chain
+     * cancelled with {@link RoomTimer#cancel()}.
+     */
+    public RoomTimer schedule(long delay, TimeUnit unit, Runnable task) {
+        RoomTimer timer = new RoomTimer(this, Engine.getEngine().getRoomScheduler());
+        return timer.then(delay, unit, task);
+    }
+
+    public Map<String, String> getExitsMap(String senderId, Room room) {
+        return exits.forLook;
+    }
+
+    /**
+     * @return the help text for each command that isn't hidden, keyed by
+     *         /verb, as shown by look.
+     */
+    public Map<String, String> getCommandHelp() {
+        return commandHelp;
     }
 
     public Collection<ExitDesc> getExits(){
-        return exitMap.values();
+        return exits.byDirection.values();
+    }
+
+    /**
+     * @return the exit the (upper cased) word names, eg. N or NORTH, or null
+     *         if the room has no exit that way.
+     */
+    public ExitDesc findExit(String word) {
+        return exits.aliases.get(word);
     }
 
     public void locationEvent(String senderId, Room room, String roomDescription, Collection<ExitDesc> exits,
@@ -141,15 +345,38 @@ public class Room {
         this.rrp = rrp;
     }
 
-    public void addUserToRoom(String id, String username) {
+    public void addUserToRoom(final String id, final String username) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                addUser(id, username);
+            }
+        });
+    }
+
+    private void addUser(String id, String username) {
         User u = new User(id, username);
         if (!userMap.containsKey(id)) {
             userMap.put(id, u);
+            if (u.username != null) {
+                usersByName.putIfAbsent(u.username.toUpperCase(), u);
+            }
+            u.inventory.addListener(contentListener);
+            contentVersion.incrementAndGet();
             this.roomEvent(u.username + " enters the room.");
         }
     }
 
-    public void removeUserFromRoom(String id) {
+    public void removeUserFromRoom(final String id) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                removeUser(id);
+            }
+        });
+    }
+
+    private void removeUser(String id) {
         if (userMap.containsKey(id)) {
             User u = userMap.get(id);
             // drop all items in the users inventory when they leave.
@@ -162,22 +389,53 @@ public class Room {
                 itemIter.remove();
                 // reset item state if needed
                 if(item.clearStateOnDrop){
-                    item.setState("");
+                    item.resetState();
                 }
                 this.playerEvent(id, "You drop the " + item.name, u.username + " drops the " + item.name);
             }
             userMap.remove(id);
+            unindexUser(u);
+            u.inventory.removeListener(contentListener);
+            contentVersion.incrementAndGet();
             this.roomEvent(u.username + " leaves the room.");
         } else {
             Log.log(Level.WARNING, this, "Unable to remove {0} from room {1} because user is not known to room", id,roomDesc.id);
         }
     }
 
-    public void command(String userid, String cmd) {
+    private void unindexUser(User u) {
+        if (u.username == null) {
+            return;
+        }
+        String name = u.username.toUpperCase();
+        if (usersByName.remove(name, u)) {
+            // someone else here may go by the same name.
+            for (User other : userMap.values()) {
+                if (other.username != null && other.username.toUpperCase().equals(name)) {
+                    usersByName.putIfAbsent(name, other);
+                    break;
+                }
+            }
+        }
+    }
+
+    public void command(final String userid, final String cmd) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                processCommand(userid, cmd);
+            }
+        });
+    }
+
+    private void processCommand(String userid, String cmd) {
         try {
-            Parser.parseInput(commandMap, cmd, this, userid);
+            MatchResult result = Parser.parseInput(commandMap, cmd, this, userid);
+            if (result.failure == MatchResult.Failure.UNKNOWN_VERB) {
+                this.playerEvent(userid, UNKNOWN_COMMAND, null);
+            }
         } catch (RuntimeException e) {
-            this.playerEvent(userid, "I'm sorry Dave, I don't know how to do that", null);
+            this.playerEvent(userid, UNKNOWN_COMMAND, null);
         }
     }
 
@@ -197,11 +455,19 @@ public class Room {
         return userMap.get(id);
     }
 
+    /**
+     * @return a user in the room going by the (upper cased) name, or null if
+     *         there is none.
+     */
+    public User getUserByName(String name) {
+        return usersByName.get(name);
+    }
+
     public Collection<User> getAllUsersInRoom() {
         return userMap.values();
     }
 
-    public Collection<ItemDesc> getItems() {
+    public ItemSet getItems() {
         return roomDesc.items;
     }
 
@@ -216,7 +482,7 @@ public class Room {
         roomDesc.items.clear();
         roomDesc.items.addAll(roomDesc.defaultItems);
         for (ItemDesc item : roomDesc.items) {
-            item.setState("");
+            item.resetState();
             if (item instanceof ContainerDesc) {
                 ContainerDesc box = (ContainerDesc) item;
                 box.items.clear();
@@ -230,9 +496,20 @@ public class Room {
     }
 
     public void setExits(Map<String, ExitDesc> exitMap) {
-        Map<String,ExitDesc> exits = new HashMap<String,ExitDesc>();
-        exits.putAll(exitMap);
-        this.exitMap = Collections.unmodifiableMap(exits);
+        Map<ExitDesc.Direction, ExitDesc> byDirection = new EnumMap<ExitDesc.Direction, ExitDesc>(ExitDesc.Direction.class);
+        for (ExitDesc e : exitMap.values()) {
+            byDirection.put(e.getDirection(), e);
+        }
+        Map<String, ExitDesc> aliases = new HashMap<String, ExitDesc>();
+        Map<String, String> forLook = new HashMap<String, String>();
+        for (ExitDesc e : byDirection.values()) {
+            aliases.put(e.getDirection().toString().toUpperCase(), e);
+            aliases.put(e.getDirection().toLongString().toUpperCase(), e);
+            forLook.put(e.getDirection().toString().toLowerCase(), e.getDoorDescription());
+        }
+        this.exits = new Exits(Collections.unmodifiableMap(byDirection), Collections.unmodifiableMap(aliases),
+                Collections.unmodifiableMap(forLook));
+        contentVersion.incrementAndGet();
     }
 
 }
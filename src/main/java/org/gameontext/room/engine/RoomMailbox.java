@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import org.gameontext.room.Log;
+
+/**
+ * Runs the tasks posted to a room one at a time, in the order they were
+ * posted, on threads borrowed from a shared pool.
+ *
+ * At most one drain of the mailbox is ever scheduled on the pool, so only
+ * one thread touches the room at a time, while different rooms still run in
+ * parallel on the rest of the pool.
+ */
+class RoomMailbox implements Executor {
+
+    private final Room room;
+    private final Executor pool;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    // the thread currently draining the mailbox, if any.
+    private volatile Thread owner;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            owner = Thread.currentThread();
+            try {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        Log.log(Level.WARNING, room, "Task for room " + room.getRoomId() + " failed", e);
+                    }
+                }
+                // nothing more waiting for now, send what the tasks said.
+                room.flushResponses();
+            } finally {
+                owner = null;
+                scheduled.set(false);
+            }
+            // something may have arrived after we found the queue empty, but
+            // before we cleared the flag, if so, it's up to us to go again.
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    };
+
+    RoomMailbox(Room room, Executor pool) {
+        this.room = room;
+        this.pool = pool;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        schedule();
+    }
+
+    /**
+     * @return true if the calling thread is the one running the room's tasks.
+     */
+    boolean isDraining() {
+        return owner == Thread.currentThread();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            pool.execute(drain);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.gameontext.room.Log;
+
+/**
+ * A chain of timed events for a room, created by
+ * {@link Room#schedule(long, TimeUnit, Runnable)}.
+ *
+ * Each event runs its delay after the one before it, and is handed to the
+ * room to run like any other change to the room. No thread is held while
+ * waiting, the events sit on the shared scheduler until they are due.
+ */
+public class RoomTimer {
+
+    private static class Step {
+        final long delay;
+        final TimeUnit unit;
+        final Runnable task;
+
+        Step(long delay, TimeUnit unit, Runnable task) {
+            this.delay = delay;
+            this.unit = unit;
+            this.task = task;
+        }
+    }
+
+    private final Room room;
+    private final ScheduledExecutorService scheduler;
+    private final Queue<Step> steps = new ArrayDeque<Step>();
+    private ScheduledFuture<?> pending;
+    private boolean cancelled;
+    // run once, when the chain runs out of events or is cancelled.
+    private Runnable whenDone;
+
+    private final Runnable fire = new Runnable() {
+        @Override
+        public void run() {
+            Step step;
+            synchronized (RoomTimer.this) {
+                if (cancelled) {
+                    return;
+                }
+                step = steps.poll();
+                pending = null;
+            }
+            Runnable finished = null;
+            try {
+                if (step != null) {
+                    room.post(step.task);
+                }
+            } catch (RuntimeException e) {
+                // one bad event doesn't stop the rest of the chain.
+                Log.log(Level.WARNING, room, "Timed event for room " + room.getRoomId() + " failed", e);
+            } finally {
+                synchronized (RoomTimer.this) {
+                    scheduleNext();
+                    if (pending == null) {
+                        finished = takeWhenDone();
+                    }
+                }
+            }
+            if (finished != null) {
+                room.post(finished);
+            }
+        }
+    };
+
+    RoomTimer(Room room, ScheduledExecutorService scheduler) {
+        this.room = room;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Add an event to run the given delay after the previous event in the
+     * chain, or after now, if everything before it has already run.
+     */
+    public synchronized RoomTimer then(long delay, TimeUnit unit, Runnable task) {
+        if (!cancelled) {
+            steps.add(new Step(delay, unit, task));
+            scheduleNext();
+        }
+        return this;
+    }
+
+    /**
+     * Stop the chain, the event currently waiting and any after it will not
+     * run.
+     */
+    public void cancel() {
+        Runnable finished;
+        synchronized (this) {
+            cancelled = true;
+            steps.clear();
+            if (pending != null) {
+                pending.cancel(false);
+                pending = null;
+            }
+            finished = takeWhenDone();
+        }
+        if (finished != null) {
+            room.post(finished);
+        }
+    }
+
+    /**
+     * Run a task for the room once the chain is over, whether every event in
+     * it ran (or failed) or it was cancelled. If it is already over, the task
+     * runs now.
+     */
+    public RoomTimer whenDone(Runnable task) {
+        synchronized (this) {
+            if (!isDone()) {
+                whenDone = task;
+                return this;
+            }
+        }
+        room.post(task);
+        return this;
+    }
+
+    /**
+     * @return true if every event in the chain has run, or it was cancelled.
+     */
+    public synchronized boolean isDone() {
+        return cancelled || (pending == null && steps.isEmpty());
+    }
+
+    // caller must hold the lock.
+    private Runnable takeWhenDone() {
+        Runnable task = whenDone;
+        whenDone = null;
+        return task;
+    }
+
+    // caller must hold the lock.
+    private void scheduleNext() {
+        Step next = steps.peek();
+        if (pending == null && next != null) {
+            pending = scheduler.schedule(fire, next.delay, next.unit);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gameontext.room.engine.meta.ContainerDesc;
+import org.gameontext.room.engine.meta.ExitDesc;
+import org.gameontext.room.engine.meta.ItemDesc;
+import org.gameontext.room.engine.parser.CommandHandler;
+import org.gameontext.room.engine.parser.CommandTemplate;
+import org.gameontext.room.engine.parser.CommandTokens;
+import org.gameontext.room.engine.parser.ContainerItem;
+import org.gameontext.room.engine.parser.Exit;
+import org.gameontext.room.engine.parser.InventoryItem;
+import org.gameontext.room.engine.parser.ItemInContainerItem;
+import org.gameontext.room.engine.parser.LinkWord;
+import org.gameontext.room.engine.parser.MatchResult;
+import org.gameontext.room.engine.parser.Node;
+import org.gameontext.room.engine.parser.RoomItem;
+import org.gameontext.room.engine.parser.Verb;
+
+/**
+ * All the templates of a single CommandHandler compiled into one decision
+ * tree. Templates sharing a prefix share the states for that prefix, so each
+ * node of the command is resolved once per state rather than once per
+ * template, and a non matching command simply runs out of transitions instead
+ * of throwing its way through every template in turn. When it does run out,
+ * the deepest point reached is reported, so handlers can tell the player what
+ * the closest template was missing.
+ *
+ * A room has one of these per handler, found by the verb the command starts
+ * with, which together make up the room's decision tree. Where more than one
+ * way on from a state could match the same words, eg. an item in the room
+ * and a player with the same name, they are tried in the order the
+ * templates that introduced them were declared, as the templates were.
+ */
+public class TemplateAutomaton {
+
+    private static class State {
+        // verbs and linkwords, keyed by their upper cased text
+        final Map<String, State> words = new HashMap<String, State>();
+        // item/exit/user slots, in the order they were declared
+        final Map<Node.Type, State> slots = new LinkedHashMap<Node.Type, State>();
+        // the index of the first template to pass through this state
+        final int order;
+        // the verb or linkword that leads into this state, if any
+        Node.Type wordType;
+        String word;
+        // template that is complete when the command ends at this state
+        CommandTemplate accept;
+
+        State(int order) {
+            this.order = order;
+        }
+
+        State next(CommandTemplate.ParseNode node, int order) {
+            State s;
+            switch (node.type) {
+                case VERB:
+                case LINKWORD: {
+                    String word = node.data.trim().toUpperCase();
+                    s = words.get(word);
+                    if (s == null) {
+                        s = new State(order);
+                        s.wordType = node.type;
+                        s.word = word;
+                        words.put(word, s);
+                    }
+                    break;
+                }
+                default: {
+                    s = slots.get(node.type);
+                    if (s == null) {
+                        s = new State(order);
+                        slots.put(node.type, s);
+                    }
+                }
+            }
+            return s;
+        }
+    }
+
+    private final State root = new State(-1);
+
+    public TemplateAutomaton(CommandHandler handler) {
+        int order = 0;
+        for (CommandTemplate t : handler.getTemplates()) {
+            State s = root;
+            for (CommandTemplate.ParseNode node : t.template) {
+                s = s.next(node, order);
+            }
+            order++;
+            // if two templates are identical, the first one declared wins, as
+            // it would have done when the templates were tried in order.
+            if (s.accept == null) {
+                s.accept = t;
+            }
+        }
+    }
+
+    // state carried through a single walk, the nodes matched so far, and the
+    // deepest point any template reached before failing.
+    private static class Walk {
+        final CommandTokens cmd;
+        final Room room;
+        final String execBy;
+        final List<Node> parsed = new ArrayList<Node>();
+        int failedAt = -1;
+        MatchResult.Failure failure;
+        List<Node> closest;
+
+        Walk(CommandTokens cmd, Room room, String execBy) {
+            this.cmd = cmd;
+            this.room = room;
+            this.execBy = execBy;
+        }
+
+        void fail(int pos, MatchResult.Failure why) {
+            if (pos > failedAt) {
+                failedAt = pos;
+                failure = why;
+                closest = new ArrayList<Node>(parsed);
+            }
+        }
+    }
+
+    /**
+     * Walk the command through the automaton, starting at word pos.
+     *
+     * @return the template and nodes that matched the entire command, or the
+     *         reason the template that got furthest through it failed.
+     */
+    public MatchResult match(CommandTokens cmd, int pos, Room room, String execBy) {
+        Walk w = new Walk(cmd, room, execBy);
+        CommandTemplate t = walk(root, pos, w);
+        if (t != null) {
+            return MatchResult.matched(t, w.parsed, cmd);
+        }
+        return MatchResult.failed(w.failure, w.closest, cmd, w.failedAt);
+    }
+
+    private static CommandTemplate walk(State s, int pos, Walk w) {
+        CommandTokens cmd = w.cmd;
+        if (pos >= cmd.size()) {
+            if (s.accept == null) {
+                w.fail(pos, MatchResult.Failure.INCOMPLETE);
+            }
+            return s.accept;
+        }
+
+        List<Node> parsed = w.parsed;
+        // the word, if there is a way on for it, is tried in its place among
+        // the slots.
+        State word = s.words.isEmpty() ? null : s.words.get(cmd.word(pos));
+        for (Map.Entry<Node.Type, State> slot : s.slots.entrySet()) {
+            if (word != null && word.order < slot.getValue().order) {
+                CommandTemplate t = walkWord(word, pos, w);
+                if (t != null) {
+                    return t;
+                }
+                word = null;
+            }
+            Node n = resolve(slot.getKey(), cmd, pos, w.room, w.execBy);
+            int used = n != null ? length(n, cmd, pos) : 0;
+            if (used > 0) {
+                parsed.add(n);
+                CommandTemplate t = walk(slot.getValue(), pos + used, w);
+                if (t != null) {
+                    return t;
+                }
+                parsed.remove(parsed.size() - 1);
+            }
+        }
+        if (word != null) {
+            CommandTemplate t = walkWord(word, pos, w);
+            if (t != null) {
+                return t;
+            }
+        }
+
+        w.fail(pos, whyNot(s));
+        return null;
+    }
+
+    private static CommandTemplate walkWord(State next, int pos, Walk w) {
+        List<Node> parsed = w.parsed;
+        parsed.add(next.wordType == Node.Type.VERB ? new Verb(next.word) : new LinkWord(next.word));
+        CommandTemplate t = walk(next, pos + 1, w);
+        if (t == null) {
+            parsed.remove(parsed.size() - 1);
+        }
+        return t;
+    }
+
+    /**
+     * @return the best description of why nothing at state s matched the
+     *         next word of the command.
+     */
+    private static MatchResult.Failure whyNot(State s) {
+        if (s.accept != null) {
+            return MatchResult.Failure.EXTRA_WORDS;
+        }
+        for (Node.Type type : s.slots.keySet()) {
+            switch (type) {
+                case EXIT:
+                    return MatchResult.Failure.UNKNOWN_EXIT;
+                case USER:
+                    return MatchResult.Failure.UNKNOWN_USER;
+                default:
+                    return MatchResult.Failure.UNKNOWN_ITEM;
+            }
+        }
+        return MatchResult.Failure.UNKNOWN_WORD;
+    }
+
+    private static Node resolve(Node.Type type, CommandTokens cmd, int pos, Room room, String execBy) {
+        switch (type) {
+            case ROOM_ITEM: {
+                ItemDesc item = Parser.findItemInRoom(cmd, pos, execBy, room);
+                return item != null ? new RoomItem(item) : null;
+            }
+            case INVENTORY_ITEM: {
+                ItemDesc item = Parser.findItemInInventory(cmd, pos, execBy, room);
+                return item != null ? new InventoryItem(item) : null;
+            }
+            case CONTAINER_ITEM: {
+                ContainerDesc box = Parser.findContainerInInventoryOrRoom(cmd, pos, execBy, room);
+                return box != null ? new ContainerItem(box) : null;
+            }
+            case ITEM_INSIDE_CONTAINER_ITEM: {
+                ItemDesc[] boxItem = Parser.findItemInContainerInInventoryOrRoom(cmd, pos, execBy, room);
+                return boxItem != null ? new ItemInContainerItem((ContainerDesc) boxItem[1], boxItem[0]) : null;
+            }
+            case EXIT: {
+                ExitDesc exit = Parser.findExitInRoom(cmd, pos, room);
+                return exit != null ? new Exit(exit) : null;
+            }
+            case USER: {
+                User user = Parser.findUserInRoom(cmd, pos, room);
+                return user != null ? new org.gameontext.room.engine.parser.User(user) : null;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return how many words of the command the resolved node covered.
+     */
+    private static int length(Node n, CommandTokens cmd, int pos) {
+        if (n instanceof org.gameontext.room.engine.parser.Item) {
+            return cmd.matchPhrase(pos, ((org.gameontext.room.engine.parser.Item) n).item.name);
+        }
+        return 1;
+    }
+}
@@ -15,20 +15,18 @@
  *******************************************************************************/
 package org.gameontext.room.engine;
 
-import java.util.Collection;
-import java.util.HashSet;
-
 import org.gameontext.room.engine.meta.ItemDesc;
+import org.gameontext.room.engine.meta.ItemSet;
 
 public class User {
 
     public final String id;
     public final String username;
-    public final Collection<ItemDesc> inventory;
+    public final ItemSet inventory;
 
     public User(String id, String username) {
         this.id = id;
         this.username = username;
-        this.inventory = new HashSet<ItemDesc>();
+        this.inventory = new ItemSet();
     }
 }
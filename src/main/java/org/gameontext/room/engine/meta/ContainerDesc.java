@@ -19,13 +19,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.gameontext.room.engine.Room;
 import org.gameontext.room.engine.parser.ItemUseHandler;
 
 public class ContainerDesc extends ItemDesc {
-    public final Collection<ItemDesc> items;
+    public final ItemSet items;
     public final Collection<ItemDesc> defaultItems;
     public final ContainerDesc.AccessVerificationHandler access;
 
@@ -40,7 +39,7 @@ public class ContainerDesc extends ItemDesc {
             ItemDesc.ItemDescriptionHandler descHandler) {
         super(name, description, takeable, clearStateOnDrop, handler, descHandler);
         this.access = access;
-        this.items = new CopyOnWriteArraySet<ItemDesc>(Arrays.asList(items));
+        this.items = new ItemSet(Arrays.asList(items));
         this.defaultItems = Collections.unmodifiableSet(new HashSet<ItemDesc>(this.items));
     }
 
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package org.gameontext.room.engine.meta;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.gameontext.room.engine.Room;
 import org.gameontext.room.engine.parser.ItemUseHandler;
 
@@ -24,8 +26,22 @@ public class ItemDesc {
     public final boolean clearStateOnDrop;
     public final ItemUseHandler useHandler;
 
-    private String state = "";
-    private final Object stateMonitor = new Object();
+    private final AtomicReference<String> state = new AtomicReference<String>("");
+
+    // for items that declare a StateTable, which of its states the item is
+    // in, and the user it is in that state for, if any.
+    private static final class TypedState {
+        final Enum<?> value;
+        final String by;
+
+        TypedState(Enum<?> value, String by) {
+            this.value = value;
+            this.by = by;
+        }
+    }
+
+    private StateTable<?> stateTable;
+    private final AtomicReference<TypedState> typedState = new AtomicReference<TypedState>();
     private final String description;
 
     public interface ItemDescriptionHandler {
@@ -66,25 +82,100 @@ public class ItemDesc {
         this.useHandler = handler;
     }
 
+    /**
+     * Give the item typed states, it starts in the table's initial state.
+     * Called from the constructor of the item class.
+     */
+    protected void declareStates(StateTable<?> table) {
+        this.stateTable = table;
+        typedState.set(new TypedState(table.getInitial(), null));
+    }
+
     public void setState(String newstate) {
-        synchronized (stateMonitor) {
-            this.state = newstate;
-        }
+        state.set(newstate);
     }
 
     public boolean getAndSetState(String oldstate, String newstate) {
-        synchronized (stateMonitor) {
-            if (this.state.equals(oldstate)) {
-                this.state = newstate;
+        String current = state.get();
+        while (current.equals(oldstate)) {
+            if (state.compareAndSet(current, newstate)) {
                 return true;
-            } else {
-                return false;
             }
+            current = state.get();
         }
+        return false;
     }
 
     public String getState() {
-        return this.state;
+        return state.get();
+    }
+
+    /**
+     * Put the item back the way it started, both its String state, and its
+     * typed state if it has one.
+     */
+    public void resetState() {
+        state.set("");
+        if (stateTable != null) {
+            typedState.set(new TypedState(stateTable.getInitial(), null));
+        }
+    }
+
+    /**
+     * @return which of the table's states the item is in.
+     */
+    public <S extends Enum<S>> S getState(StateTable<S> table) {
+        return table.getType().cast(typed(table).value);
+    }
+
+    /**
+     * @return the user the item is in its current state for, eg. who is
+     *         wearing it, or null.
+     */
+    public String getStateBy() {
+        TypedState s = typedState.get();
+        return s != null ? s.by : null;
+    }
+
+    /**
+     * @return true if the item is in the given state, for the given user.
+     */
+    public <S extends Enum<S>> boolean isState(StateTable<S> table, S value, String by) {
+        TypedState s = typed(table);
+        return s.value == value && (by == null ? s.by == null : by.equals(s.by));
+    }
+
+    public <S extends Enum<S>> boolean changeState(StateTable<S> table, S from, S to) {
+        return changeState(table, from, to, null);
+    }
+
+    /**
+     * Move the item from one state to another, for the given user, if it is
+     * in the from state, and the table allows the change.
+     *
+     * @return true if the item was changed, false if it wasn't in the from
+     *         state, or can't go from there to the new state.
+     */
+    public <S extends Enum<S>> boolean changeState(StateTable<S> table, S from, S to, String by) {
+        TypedState current = typed(table);
+        if (!table.allows(from, to)) {
+            return false;
+        }
+        TypedState changed = new TypedState(to, by);
+        while (current.value == from) {
+            if (typedState.compareAndSet(current, changed)) {
+                return true;
+            }
+            current = typedState.get();
+        }
+        return false;
+    }
+
+    private TypedState typed(StateTable<?> table) {
+        if (table != stateTable) {
+            throw new IllegalArgumentException("Item " + name + " does not use states " + table.getType().getSimpleName());
+        }
+        return typedState.get();
     }
 
     public String getDescription(String execBy, String cmd, Room room) {
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine.meta;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gameontext.room.engine.parser.CommandTokens;
+
+/**
+ * A trie of item names, one level per word, with a count at the end of each
+ * name so the same name can be added more than once (eg, two containers
+ * holding the same item), and only disappears when the last one is removed.
+ */
+class ItemNameIndex {
+
+    private static class Node {
+        final Map<String, Node> children = new HashMap<String, Node>();
+        // how many items with this name are present, and the name itself.
+        int count;
+        String name;
+    }
+
+    private final Node root = new Node();
+
+    synchronized void add(String name) {
+        Node n = root;
+        for (String word : words(name)) {
+            Node child = n.children.get(word);
+            if (child == null) {
+                child = new Node();
+                n.children.put(word, child);
+            }
+            n = child;
+        }
+        if (n != root) {
+            n.count++;
+            n.name = name.trim().toUpperCase();
+        }
+    }
+
+    synchronized void remove(String name) {
+        Node n = root;
+        for (String word : words(name)) {
+            n = n.children.get(word);
+            if (n == null) {
+                return;
+            }
+        }
+        if (n != root && n.count > 0) {
+            n.count--;
+        }
+    }
+
+    /**
+     * @return the longest name in the index that matches the words of the
+     *         command starting at pos, or null if none do.
+     */
+    synchronized String longestMatch(CommandTokens cmd, int pos) {
+        String found = null;
+        Node n = root;
+        for (int i = pos; i < cmd.size(); i++) {
+            n = n.children.get(cmd.word(i));
+            if (n == null) {
+                break;
+            }
+            if (n.count > 0) {
+                found = n.name;
+            }
+        }
+        return found;
+    }
+
+    private static String[] words(String name) {
+        String trimmed = name.trim();
+        if (trimmed.isEmpty()) {
+            return new String[0];
+        }
+        return trimmed.toUpperCase().split("\\s+");
+    }
+}
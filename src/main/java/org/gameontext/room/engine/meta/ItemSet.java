@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine.meta;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.gameontext.room.engine.parser.CommandTokens;
+
+/**
+ * The items in a room, a container, or a user's inventory.
+ *
+ * Keeps an index of the names of the items it holds, including the items
+ * inside any containers it holds, up to date as items are added and removed,
+ * so the parser can find the longest item name at the start of a command
+ * without looking at every item.
+ */
+public class ItemSet extends AbstractSet<ItemDesc> {
+
+    public interface Listener {
+        public void itemAdded(ItemSet set, ItemDesc item);
+
+        public void itemRemoved(ItemSet set, ItemDesc item);
+    }
+
+    private final CopyOnWriteArraySet<ItemDesc> items = new CopyOnWriteArraySet<ItemDesc>();
+    private final ItemNameIndex names = new ItemNameIndex();
+    private final Collection<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    // bumped on every change here, or to a container held here.
+    private final AtomicLong version = new AtomicLong();
+
+    // the names of the items held here, as of a version of the set.
+    private static final class NameList {
+        final long version;
+        final List<String> names;
+
+        NameList(long version, List<String> names) {
+            this.version = version;
+            this.names = names;
+        }
+    }
+
+    private volatile NameList nameList = new NameList(-1, Collections.<String>emptyList());
+
+    // keeps our index in step with the contents of containers we hold, and
+    // passes the change on, as far as our listeners are concerned it's a
+    // change to us.
+    private final Listener containerListener = new Listener() {
+        @Override
+        public void itemAdded(ItemSet set, ItemDesc item) {
+            names.add(item.name);
+            fireAdded(item);
+        }
+
+        @Override
+        public void itemRemoved(ItemSet set, ItemDesc item) {
+            names.remove(item.name);
+            fireRemoved(item);
+        }
+    };
+
+    public ItemSet() {
+    }
+
+    public ItemSet(Collection<ItemDesc> initial) {
+        addAll(initial);
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * @return a number that increases every time an item is added to or
+     *         removed from this set, or a container held in it.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return the names of the items held here (not those inside containers),
+     *         only worked out again after the set has changed.
+     */
+    public List<String> getNames() {
+        NameList current = nameList;
+        long v = version.get();
+        if (current.version != v) {
+            // if the set changes while we look, the list is stored against the
+            // version from before, and is simply worked out again next time.
+            List<String> list = new ArrayList<String>(items.size());
+            for (ItemDesc item : items) {
+                list.add(item.name);
+            }
+            current = new NameList(v, Collections.unmodifiableList(list));
+            nameList = current;
+        }
+        return current.names;
+    }
+
+    /**
+     * @return the longest name of an item held here (or in a container held
+     *         here) matching the command from word pos onwards, upper cased,
+     *         or null if there is none.
+     */
+    public String longestMatch(CommandTokens cmd, int pos) {
+        return names.longestMatch(cmd, pos);
+    }
+
+    @Override
+    public boolean add(ItemDesc item) {
+        if (items.add(item)) {
+            names.add(item.name);
+            if (item instanceof ContainerDesc) {
+                ContainerDesc box = (ContainerDesc) item;
+                for (ItemDesc boxItem : box.items) {
+                    names.add(boxItem.name);
+                }
+                box.items.addListener(containerListener);
+            }
+            fireAdded(item);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (items.remove(o)) {
+            ItemDesc item = (ItemDesc) o;
+            names.remove(item.name);
+            if (item instanceof ContainerDesc) {
+                ContainerDesc box = (ContainerDesc) item;
+                box.items.removeListener(containerListener);
+                for (ItemDesc boxItem : box.items) {
+                    names.remove(boxItem.name);
+                }
+            }
+            fireRemoved(item);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return items.contains(o);
+    }
+
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        for (ItemDesc item : items) {
+            remove(item);
+        }
+    }
+
+    @Override
+    public Iterator<ItemDesc> iterator() {
+        final Iterator<ItemDesc> snapshot = items.iterator();
+        return new Iterator<ItemDesc>() {
+            ItemDesc last;
+
+            @Override
+            public boolean hasNext() {
+                return snapshot.hasNext();
+            }
+
+            @Override
+            public ItemDesc next() {
+                last = snapshot.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
+                }
+                ItemSet.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private void fireAdded(ItemDesc item) {
+        version.incrementAndGet();
+        for (Listener l : listeners) {
+            l.itemAdded(this, item);
+        }
+    }
+
+    private void fireRemoved(ItemDesc item) {
+        version.incrementAndGet();
+        for (Listener l : listeners) {
+            l.itemRemoved(this, item);
+        }
+    }
+}
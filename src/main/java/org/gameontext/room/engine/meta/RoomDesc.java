@@ -20,14 +20,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.concurrent.CopyOnWriteArraySet;
 
 public class RoomDesc {
 
     public final String id;
     public final String name;
     public final String description;
-    public final Collection<ItemDesc> items;
+    public final ItemSet items;
     public final Collection<ItemDesc> defaultItems;
     public final Collection<DoorDesc> doorways;
 
@@ -35,7 +34,7 @@ public class RoomDesc {
         this.id = id;
         this.name = name;
         this.description = description;
-        this.items = new CopyOnWriteArraySet<ItemDesc>(Arrays.asList(items));
+        this.items = new ItemSet(Arrays.asList(items));
         this.defaultItems = Collections.unmodifiableSet(new HashSet<ItemDesc>(this.items));
         this.doorways = Collections.unmodifiableList(new ArrayList<DoorDesc>(Arrays.asList(doorways)));
     }
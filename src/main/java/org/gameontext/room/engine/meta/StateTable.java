@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine.meta;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The states an item can be in, the one it starts in, and which states it
+ * may change to from each, for items with more to them than a String state.
+ *
+ * Built once, when the item class is loaded, eg.
+ *
+ * <pre>
+ * StateTable.of(Contents.class, Contents.EMPTY).allow(Contents.EMPTY, Contents.FULL)
+ *         .allow(Contents.FULL, Contents.EMPTY);
+ * </pre>
+ *
+ * and only read after that.
+ */
+public final class StateTable<S extends Enum<S>> {
+
+    private final Class<S> type;
+    private final S initial;
+    private final Map<S, Set<S>> next;
+
+    private StateTable(Class<S> type, S initial) {
+        this.type = type;
+        this.initial = initial;
+        this.next = new EnumMap<S, Set<S>>(type);
+        for (S s : type.getEnumConstants()) {
+            next.put(s, EnumSet.noneOf(type));
+        }
+    }
+
+    public static <S extends Enum<S>> StateTable<S> of(Class<S> type, S initial) {
+        return new StateTable<S>(type, initial);
+    }
+
+    /**
+     * Let an item in state from change to any of the given states.
+     */
+    @SafeVarargs
+    public final StateTable<S> allow(S from, S... to) {
+        for (S s : to) {
+            next.get(from).add(s);
+        }
+        return this;
+    }
+
+    public boolean allows(S from, S to) {
+        return next.get(from).contains(to);
+    }
+
+    /**
+     * @return the states an item may change to from the given one.
+     */
+    public Set<S> getNext(S from) {
+        return Collections.unmodifiableSet(next.get(from));
+    }
+
+    public S getInitial() {
+        return initial;
+    }
+
+    public Class<S> getType() {
+        return type;
+    }
+}
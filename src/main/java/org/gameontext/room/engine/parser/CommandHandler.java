@@ -16,11 +16,31 @@
 package org.gameontext.room.engine.parser;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.logging.Level;
 
+import org.gameontext.room.Log;
 import org.gameontext.room.engine.Room;
 
 public abstract class CommandHandler {
+
+    /**
+     * The code to run when a particular template matches, see
+     * {@link CommandHandler#register(CommandTemplate, TemplateCallback)}
+     */
+    public interface TemplateCallback {
+        public void process(Room room, String execBy, ParsedCommand command);
+    }
+
+    // callbacks indexed by template id, and the templates they were
+    // registered for, in the order they were registered.
+    private volatile TemplateCallback[] callbacks = new TemplateCallback[0];
+    private final Set<CommandTemplate> registered = new LinkedHashSet<CommandTemplate>();
+    private volatile Set<CommandTemplate> registeredView = Collections.emptySet();
+
     public static class CommandTemplateBuilder {
         private ArrayList<CommandTemplate.ParseNode> args = new ArrayList<CommandTemplate.ParseNode>();
 
@@ -108,13 +128,91 @@ public abstract class CommandHandler {
         }
     }
 
-    public abstract Set<CommandTemplate> getTemplates();
+    /**
+     * Bind a template to the code that handles it. Handlers that register
+     * their templates don't need to override getTemplates or processCommand.
+     */
+    protected synchronized void register(CommandTemplate template, TemplateCallback callback) {
+        TemplateCallback[] table = callbacks;
+        if (template.id >= table.length) {
+            table = Arrays.copyOf(table, template.id + 1);
+        } else {
+            table = table.clone();
+        }
+        table[template.id] = callback;
+        callbacks = table;
+        registered.add(template);
+        registeredView = Collections.unmodifiableSet(new LinkedHashSet<CommandTemplate>(registered));
+    }
+
+    public Set<CommandTemplate> getTemplates() {
+        return registeredView;
+    }
+
+    /**
+     * Make sure every template the handler offers has a callback, unless it
+     * does its own dispatching in processCommand. Called as a room is built,
+     * so a missing callback stops the room rather than a player's command.
+     *
+     * @throws IllegalStateException if a template has no callback
+     */
+    public void checkCallbacks() {
+        if (!usesCallbacks()) {
+            return;
+        }
+        TemplateCallback[] table = callbacks;
+        for (CommandTemplate t : getTemplates()) {
+            if (t.id >= table.length || table[t.id] == null) {
+                throw new IllegalStateException("No callback registered for Command Template " + t.key + " of "
+                        + getClass().getName());
+            }
+        }
+    }
+
+    private boolean usesCallbacks() {
+        try {
+            return getClass().getMethod("processCommand", Room.class, String.class, ParsedCommand.class)
+                    .getDeclaringClass() == CommandHandler.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
 
     public abstract boolean isHidden();
 
     public abstract String getHelpText();
 
-    public abstract void processCommand(Room room, String execBy, ParsedCommand command);
+    /**
+     * Hands the command to the callback registered for the template it
+     * matched. Commands are only processed for users in the room, anyone
+     * else is told the command wasn't understood.
+     */
+    public void processCommand(Room room, String execBy, ParsedCommand command) {
+        if (room.getUserById(execBy) == null) {
+            Log.log(Level.WARNING, this, "Cannot process command {0} for user {1} as they are not known to the room",
+                    command.key, execBy);
+            room.playerEvent(execBy, Room.UNKNOWN_COMMAND, null);
+            return;
+        }
+        TemplateCallback[] table = callbacks;
+        int id = command.template != null ? command.template.id : CommandTemplate.idOf(command.key);
+        if (id < 0 || id >= table.length || table[id] == null) {
+            // checkCallbacks should have caught this when the room was built.
+            Log.log(Level.SEVERE, this, "No callback registered for Command Template {0}", command.key);
+            room.playerEvent(execBy, Room.UNKNOWN_COMMAND, null);
+            return;
+        }
+        table[id].process(room, execBy, command);
+    }
 
     public abstract void processUnknown(Room room, String execBy, String origCmd, String cmdWithoutVerb);
+
+    /**
+     * Called when the verb was recognised but no template matched, with the
+     * result of the template that came closest. Handlers wanting to say more
+     * than processUnknown does about what was wrong can override this.
+     */
+    public void processUnknown(Room room, String execBy, String origCmd, String cmdWithoutVerb, MatchResult closest) {
+        processUnknown(room, execBy, origCmd, cmdWithoutVerb);
+    }
 }
@@ -16,10 +16,19 @@
 package org.gameontext.room.engine.parser;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class CommandTemplate {
+    // every distinct key gets a small integer id, so handlers can dispatch
+    // on the template with an array lookup instead of comparing keys.
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private static final AtomicInteger nextId = new AtomicInteger();
+
     public final List<CommandTemplate.ParseNode> template;
     public final String key;
+    public final int id;
 
     public static class ParseNode {
         public Node.Type type;
@@ -29,5 +38,31 @@ public class CommandTemplate {
     public CommandTemplate(String key, List<CommandTemplate.ParseNode> template) {
         this.key = key;
         this.template = template;
+        this.id = idFor(key);
+    }
+
+    /**
+     * @return the id shared by all templates with this key.
+     */
+    public static int idFor(String key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            synchronized (ids) {
+                id = ids.get(key);
+                if (id == null) {
+                    id = nextId.getAndIncrement();
+                    ids.put(key, id);
+                }
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the id for a key, or -1 if no template has that key.
+     */
+    public static int idOf(String key) {
+        Integer id = ids.get(key);
+        return id != null ? id : -1;
     }
 }
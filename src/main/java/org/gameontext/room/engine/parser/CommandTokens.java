@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine.parser;
+
+import java.util.Arrays;
+
+/**
+ * A command split into whitespace separated words, exactly once.
+ *
+ * Words are held as offsets into the original command, and are only upper
+ * cased (and cached) when something asks for them as a String, so the parser
+ * can walk the command with a simple int cursor and compare words in place.
+ */
+public class CommandTokens {
+    private final String command;
+    private final int[] starts;
+    private final int[] ends;
+    private final String[] words;
+
+    public CommandTokens(String command) {
+        this.command = command;
+        int len = command.length();
+        int[] s = new int[8];
+        int[] e = new int[8];
+        int count = 0;
+        int i = 0;
+        while (i < len) {
+            while (i < len && Character.isWhitespace(command.charAt(i))) {
+                i++;
+            }
+            if (i == len) {
+                break;
+            }
+            if (count == s.length) {
+                s = Arrays.copyOf(s, count * 2);
+                e = Arrays.copyOf(e, count * 2);
+            }
+            s[count] = i;
+            while (i < len && !Character.isWhitespace(command.charAt(i))) {
+                i++;
+            }
+            e[count] = i;
+            count++;
+        }
+        this.starts = Arrays.copyOf(s, count);
+        this.ends = Arrays.copyOf(e, count);
+        this.words = new String[count];
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * @return the word at index i, upper cased, or null if there is no such
+     *         word.
+     */
+    public String word(int i) {
+        if (i < 0 || i >= words.length) {
+            return null;
+        }
+        String w = words[i];
+        if (w == null) {
+            w = command.substring(starts[i], ends[i]).toUpperCase();
+            words[i] = w;
+        }
+        return w;
+    }
+
+    /**
+     * Case insensitive comparison of the word at index i, without creating
+     * any Strings.
+     */
+    public boolean wordEquals(int i, String word) {
+        if (i < 0 || i >= starts.length) {
+            return false;
+        }
+        int len = ends[i] - starts[i];
+        return word.length() == len && command.regionMatches(true, starts[i], word, 0, len);
+    }
+
+    /**
+     * Case insensitive comparison of a (possibly multi word) phrase against
+     * the words starting at index from.
+     *
+     * @return the number of words the phrase covers, or 0 if it doesn't match.
+     */
+    public int matchPhrase(int from, String phrase) {
+        int p = 0;
+        int plen = phrase.length();
+        int t = from;
+        while (true) {
+            while (p < plen && Character.isWhitespace(phrase.charAt(p))) {
+                p++;
+            }
+            if (p == plen) {
+                return t - from;
+            }
+            if (t >= starts.length) {
+                return 0;
+            }
+            int e = p;
+            while (e < plen && !Character.isWhitespace(phrase.charAt(e))) {
+                e++;
+            }
+            int wlen = e - p;
+            if (wlen != ends[t] - starts[t] || !command.regionMatches(true, starts[t], phrase, p, wlen)) {
+                return 0;
+            }
+            p = e;
+            t++;
+        }
+    }
+
+    /**
+     * @return the original text of the command from the word at index from
+     *         onwards, or an empty string if there are no more words.
+     */
+    public String text(int from) {
+        if (from >= starts.length) {
+            return "";
+        }
+        return command.substring(starts[from], ends[starts.length - 1]);
+    }
+}
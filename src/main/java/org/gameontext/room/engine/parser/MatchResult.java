@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of matching a command against the templates of a handler.
+ *
+ * On success, holds the template that matched and the nodes it matched. On
+ * failure, holds why the closest template failed, the nodes it had matched
+ * up to that point, and where in the command it gave up.
+ */
+public class MatchResult {
+
+    public enum Failure {
+        // the verb isn't known to the room
+        UNKNOWN_VERB,
+        // the command ended before any template was complete
+        INCOMPLETE,
+        // a word didn't match any linkword the templates expected
+        UNKNOWN_WORD,
+        // the templates expected an item, but none was found here
+        UNKNOWN_ITEM,
+        // the templates expected an exit, but there is none by that name
+        UNKNOWN_EXIT,
+        // the templates expected a player, but there is none by that name
+        UNKNOWN_USER,
+        // a template matched, but there was more on the end of the command
+        EXTRA_WORDS
+    }
+
+    public final CommandTemplate template;
+    public final List<Node> nodes;
+    public final Failure failure;
+    public final CommandTokens tokens;
+    public final int position;
+
+    private MatchResult(CommandTemplate template, List<Node> nodes, Failure failure, CommandTokens tokens,
+            int position) {
+        this.template = template;
+        this.nodes = Collections.unmodifiableList(new ArrayList<Node>(nodes));
+        this.failure = failure;
+        this.tokens = tokens;
+        this.position = position;
+    }
+
+    public static MatchResult matched(CommandTemplate template, List<Node> nodes, CommandTokens tokens) {
+        return new MatchResult(template, nodes, null, tokens, tokens.size());
+    }
+
+    public static MatchResult failed(Failure failure, List<Node> nodes, CommandTokens tokens, int position) {
+        return new MatchResult(null, nodes, failure, tokens, position);
+    }
+
+    /**
+     * @return this result, against another command with the same words, eg.
+     *         one that differed only in case or spacing.
+     */
+    public MatchResult forCommand(CommandTokens other) {
+        return new MatchResult(template, nodes, failure, other, position);
+    }
+
+    public boolean isMatch() {
+        return template != null;
+    }
+
+    /**
+     * @return the part of the command that was not matched, empty for a
+     *         successful match.
+     */
+    public String getRemainder() {
+        return tokens.text(position);
+    }
+}
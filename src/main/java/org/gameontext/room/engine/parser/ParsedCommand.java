@@ -21,17 +21,33 @@ import java.util.List;
 
 public class ParsedCommand {
     public final String originalCommand;
+    public final CommandTokens tokens;
+    public final CommandTemplate template;
     public final Verb verb;
     public final List<Node> args;
     public final String key;
 
     public ParsedCommand(String command, List<Node> parsed) {
-        // build the key.
-        StringBuilder sb = new StringBuilder();
-        for (Node n : parsed) {
-            sb.append(n.getKey());
+        this(command, new CommandTokens(command), parsed);
+    }
+
+    public ParsedCommand(String command, CommandTokens tokens, List<Node> parsed) {
+        this(command, tokens, null, parsed);
+    }
+
+    public ParsedCommand(String command, CommandTokens tokens, CommandTemplate template, List<Node> parsed) {
+        // the template that matched already knows its key, only build one if
+        // we weren't told which template this was.
+        if (template != null) {
+            this.key = template.key;
+        } else {
+            StringBuilder sb = new StringBuilder();
+            for (Node n : parsed) {
+                sb.append(n.getKey());
+            }
+            this.key = sb.toString();
         }
-        this.key = sb.toString();
+        this.template = template;
 
         ArrayList<Node> n = new ArrayList<Node>(parsed);
         // split out the verb and remove it from the args when there is one.
@@ -43,5 +59,6 @@ public class ParsedCommand {
         }
         args = Collections.unmodifiableList(n);
         this.originalCommand = command;
+        this.tokens = tokens;
     }
 }
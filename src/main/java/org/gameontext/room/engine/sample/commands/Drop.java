@@ -59,7 +59,7 @@ public class Drop extends CommandHandler {
             room.getItems().add(i.item);
             u.inventory.remove(i.item);
             if(i.item.clearStateOnDrop){
-                i.item.setState("");
+                i.item.resetState();
             }
             room.playerEvent(execBy, "You drop the " + i.item.name, u.username + " drops the " + i.item.name);
         }
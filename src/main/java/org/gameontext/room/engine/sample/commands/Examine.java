@@ -16,11 +16,7 @@
 package org.gameontext.room.engine.sample.commands;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import org.gameontext.room.engine.Room;
 import org.gameontext.room.engine.User;
@@ -41,33 +37,13 @@ public class Examine extends CommandHandler {
     private static final CommandTemplate examineItemInContainer = new CommandTemplateBuilder()
             .build(Type.VERB, "Examine").build(Type.ITEM_INSIDE_CONTAINER_ITEM).build();
 
-    private static final Set<CommandTemplate> templates = Collections.unmodifiableSet(new HashSet<CommandTemplate>(
-            Arrays.asList(new CommandTemplate[] { examineInventoryItem, examineRoomItem, examineItemInContainer })));
-
-    @Override
-    public String getHelpText(){
-        return "Examines an item in the room or your inventory.";
-    }
-
-    @Override
-    public Set<CommandTemplate> getTemplates() {
-        return templates;
-    }
-
-    @Override
-    public boolean isHidden() {
-        return false;
-    }
-
-    @Override
-    public void processCommand(Room room, String execBy, ParsedCommand command) {
-        String key = command.key;
-        User u = room.getUserById(execBy);
-        if (u != null) {
-            // in all 3 supported cases, we expect an item argument.
-            Item i = (Item) command.args.get(0);
-            // if we examine something in the room, tell the room we did so.
-            if (key.equals(examineRoomItem.key)) {
+    public Examine() {
+        // if we examine something in the room, tell the room we did so.
+        register(examineRoomItem, new TemplateCallback() {
+            @Override
+            public void process(Room room, String execBy, ParsedCommand command) {
+                User u = room.getUserById(execBy);
+                Item i = (Item) command.args.get(0);
                 if (i.item instanceof ContainerDesc) {
                     ContainerDesc box = (ContainerDesc) i.item;
                     StringBuilder result = new StringBuilder();
@@ -96,14 +72,31 @@ public class Examine extends CommandHandler {
                     room.playerEvent(execBy, i.item.getDescription(execBy, command.originalCommand, room),
                             u.username + " examines the " + i.item.name);
                 }
-            } else {
-                // for the other cases, we don't say.. no need to tell other
-                // people if you are examining items you hold.
-                // or if you are examining items in boxes they may not be able
-                // to see in.
+            }
+        });
+        // for the other cases, we don't say.. no need to tell other
+        // people if you are examining items you hold.
+        // or if you are examining items in boxes they may not be able
+        // to see in.
+        TemplateCallback examineQuietly = new TemplateCallback() {
+            @Override
+            public void process(Room room, String execBy, ParsedCommand command) {
+                Item i = (Item) command.args.get(0);
                 room.playerEvent(execBy, i.item.getDescription(execBy, command.originalCommand, room), null);
             }
-        }
+        };
+        register(examineInventoryItem, examineQuietly);
+        register(examineItemInContainer, examineQuietly);
+    }
+
+    @Override
+    public String getHelpText(){
+        return "Examines an item in the room or your inventory.";
+    }
+
+    @Override
+    public boolean isHidden() {
+        return false;
     }
 
     @Override
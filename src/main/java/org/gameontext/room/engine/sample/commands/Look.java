@@ -15,18 +15,8 @@
  *******************************************************************************/
 package org.gameontext.room.engine.sample.commands;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-
 import org.gameontext.room.engine.Room;
 import org.gameontext.room.engine.User;
-import org.gameontext.room.engine.meta.ItemDesc;
 import org.gameontext.room.engine.parser.CommandHandler;
 import org.gameontext.room.engine.parser.CommandTemplate;
 import org.gameontext.room.engine.parser.Item;
@@ -45,60 +35,42 @@ public class Look extends CommandHandler {
     private static final CommandTemplate lookAtItemInContainer = new CommandTemplateBuilder().build(Type.VERB, "Look")
             .build(Type.LINKWORD, "AT").build(Type.ITEM_INSIDE_CONTAINER_ITEM).build();
 
-    private static final Set<CommandTemplate> templates = Collections
-            .unmodifiableSet(new HashSet<CommandTemplate>(Arrays.asList(new CommandTemplate[] { look, lookAtRoomItem,
-                    lookAtInventoryItem, lookInContainerItem, lookAtItemInContainer })));
+    public Look() {
+        register(look, new TemplateCallback() {
+            @Override
+            public void process(Room room, String execBy, ParsedCommand command) {
+                // the item names are only listed again when the items
+                // change, and the exits and commands when they are set.
+                User u = room.getUserById(execBy);
+                room.locationEvent(execBy, room, room.getRoomDescription(), room.getExits(), room.getItems().getNames(),
+                        u.inventory.getNames(), room.getCommandHelp());
+            }
+        });
+        TemplateCallback lookAt = new TemplateCallback() {
+            @Override
+            public void process(Room room, String execBy, ParsedCommand command) {
+                Item i = (Item) command.args.get(1);
+                room.command(execBy, "Examine " + i.item.name);
+            }
+        };
+        register(lookAtRoomItem, lookAt);
+        register(lookAtInventoryItem, lookAt);
+        register(lookAtItemInContainer, lookAt);
+        // we could treat this differently if we wanted to handle 'look
+        // in container' differently from 'look at container'
+        register(lookInContainerItem, lookAt);
+    }
 
     @Override
     public String getHelpText(){
         return "Look at the room, **at** an item, or **in** a container.";
     }
 
-    @Override
-    public Set<CommandTemplate> getTemplates() {
-        return templates;
-    }
-
     @Override
     public boolean isHidden() {
         return false;
     }
 
-    @Override
-    public void processCommand(Room room, String execBy, ParsedCommand command) {
-        String key = command.key;
-        User u = room.getUserById(execBy);
-        if (u != null) {
-            if (key.equals(look.key)) {
-                List<String> invItems = new ArrayList<String>();
-                List<String> roomItems = new ArrayList<String>();
-                for (ItemDesc i : room.getItems()) {
-                    roomItems.add(i.name);
-                }
-                for (ItemDesc i : u.inventory) {
-                    invItems.add(i.name);
-                }
-                Map<String,String> commands = new HashMap<String,String>();
-                for(CommandHandler ch : room.getCommands()){
-                    if(!ch.isHidden()){
-                        String verb = ch.getTemplates().iterator().next().template.get(0).data.toLowerCase();
-                        commands.put("/"+verb, ch.getHelpText());
-                    }
-                }
-                room.locationEvent(execBy, room, room.getRoomDescription(), room.getExits(), roomItems, invItems,commands);
-            } else if (key.equals(lookAtRoomItem.key) || key.equals(lookAtInventoryItem.key)
-                    || key.equals(lookAtItemInContainer.key)) {
-                Item i = (Item) command.args.get(1);
-                room.command(execBy, "Examine " + i.item.name);
-            } else if (key.equals(lookInContainerItem.key)) {
-                // we could treat this differently if we wanted to handle 'look
-                // in container' differently from 'look at container'
-                Item i = (Item) command.args.get(1);
-                room.command(execBy, "Examine " + i.item.name);
-            }
-        }
-    }
-
     @Override
     public void processUnknown(Room room, String execBy, String origCmd, String cmdWithoutVerb) {
         room.playerEvent(execBy, "I'm sorry, but I'm not sure how I'm supposed to look " + cmdWithoutVerb, null);
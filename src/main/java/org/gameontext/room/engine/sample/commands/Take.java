@@ -15,11 +15,6 @@
  *******************************************************************************/
 package org.gameontext.room.engine.sample.commands;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
 import org.gameontext.room.engine.Room;
 import org.gameontext.room.engine.User;
 import org.gameontext.room.engine.parser.CommandHandler;
@@ -38,31 +33,12 @@ public class Take extends CommandHandler {
     private static final CommandTemplate takeItemFromContainer = new CommandTemplateBuilder().build(Type.VERB, "Take")
             .build(Type.ITEM_INSIDE_CONTAINER_ITEM).build(Type.LINKWORD, "from").build(Type.CONTAINER_ITEM).build();
 
-    private static final Set<CommandTemplate> templates = Collections.unmodifiableSet(new HashSet<CommandTemplate>(
-            Arrays.asList(new CommandTemplate[] { takeItemInRoom, takeItemFromContainer, takeItemInInventory })));
-
-    @Override
-    public String getHelpText(){
-        return "Pick up an item thats in the room, or take an item **from** a container";
-    }
-
-    @Override
-    public Set<CommandTemplate> getTemplates() {
-        return templates;
-    }
-
-    @Override
-    public boolean isHidden() {
-        return false;
-    }
-
-    @Override
-    public void processCommand(Room room, String execBy, ParsedCommand command) {
-        String key = command.key;
-        User u = room.getUserById(execBy);
-        if (u != null) {
-            if (key.equals(takeItemInRoom.key)) {
+    public Take() {
+        register(takeItemInRoom, new TemplateCallback() {
+            @Override
+            public void process(Room room, String execBy, ParsedCommand command) {
                 // player tried to take item in room
+                User u = room.getUserById(execBy);
                 Item i = (Item) command.args.get(0);
                 if (i.item.takeable) {
                     room.getItems().remove(i.item);
@@ -74,8 +50,13 @@ public class Take extends CommandHandler {
                             "You try really hard to pick up the " + i.item.name + " but it's just too tiring.",
                             u.username + " tries to pick up the " + i.item.name + " and fails.");
                 }
-            } else if (key.equals(takeItemFromContainer.key)) {
+            }
+        });
+        register(takeItemFromContainer, new TemplateCallback() {
+            @Override
+            public void process(Room room, String execBy, ParsedCommand command) {
                 // player tried to take item from a container.
+                User u = room.getUserById(execBy);
                 ItemInContainerItem i = (ItemInContainerItem) command.args.get(0);
                 if (i.item.takeable) {
                     // if we have no access handler, or if we are approved..
@@ -98,12 +79,26 @@ public class Take extends CommandHandler {
                             u.username + " tries to take the " + i.item.name + " from the " + i.container.name
                                     + " and fails.");
                 }
-            } else {
+            }
+        });
+        register(takeItemInInventory, new TemplateCallback() {
+            @Override
+            public void process(Room room, String execBy, ParsedCommand command) {
                 // tried to take an item you are already holding..
                 Item i = (Item) command.args.get(0);
                 room.playerEvent(execBy, "You can't take the " + i.item.name + " because you already have it.", null);
             }
-        }
+        });
+    }
+
+    @Override
+    public String getHelpText(){
+        return "Pick up an item thats in the room, or take an item **from** a container";
+    }
+
+    @Override
+    public boolean isHidden() {
+        return false;
     }
 
     @Override
@@ -26,6 +26,7 @@ import org.gameontext.room.engine.User;
 import org.gameontext.room.engine.parser.CommandHandler;
 import org.gameontext.room.engine.parser.CommandTemplate;
 import org.gameontext.room.engine.parser.Item;
+import org.gameontext.room.engine.parser.MatchResult;
 import org.gameontext.room.engine.parser.ParsedCommand;
 import org.gameontext.room.engine.parser.Node.Type;
 
@@ -101,15 +102,14 @@ public class Use extends CommandHandler {
             // every template has an item as the first arg.
             Item i = (Item) command.args.get(0);
             if (i.item.useHandler != null) {
-                // remove the use verb, the item use handlers do not expect it.
-                String cmd = command.originalCommand;
-                cmd = Parser.removeFirstWordFromCommand(cmd);
-                boolean result = Parser.processCommandHandler(i.item.useHandler, cmd, room, execBy);
+                // skip the use verb, the item use handlers do not expect it.
+                MatchResult result = Parser.processCommandHandler(i.item.useHandler, command.tokens, 1, room, execBy);
                 // none of the templates for this handler processed this
                 // instance.
                 // let the handler generate the failure message.
-                if (!result) {
-                    i.item.useHandler.processUnknown(room, execBy, command.originalCommand, cmd);
+                if (!result.isMatch()) {
+                    i.item.useHandler.processUnknown(room, execBy, command.originalCommand, command.tokens.text(1),
+                            result);
                 }
             } else {
                 room.playerEvent(execBy, "I'm sorry, but it doesn't look like you can use " + i.item.name, null);
@@ -117,6 +117,26 @@ public class Use extends CommandHandler {
         }
     }
 
+    @Override
+    public void processUnknown(Room room, String execBy, String origCmd, String cmdWithoutVerb, MatchResult closest) {
+        // if the closest template got as far as 'use item with', we know what
+        // they were trying to do, and can be a little more helpful.
+        if (closest.nodes.size() == 3 && closest.nodes.get(1) instanceof Item) {
+            String name = ((Item) closest.nodes.get(1)).item.name;
+            switch (closest.failure) {
+                case INCOMPLETE:
+                    room.playerEvent(execBy, "What would you like to use the " + name + " with?", null);
+                    return;
+                case UNKNOWN_ITEM:
+                    room.playerEvent(execBy, "I'm sorry, but I can't see any " + closest.getRemainder()
+                            + " to use the " + name + " with.", null);
+                    return;
+                default:
+            }
+        }
+        processUnknown(room, execBy, origCmd, cmdWithoutVerb);
+    }
+
     @Override
     public void processUnknown(Room room, String execBy, String origCmd, String cmdWithoutVerb) {
         if (cmdWithoutVerb.trim().length() > 0) {
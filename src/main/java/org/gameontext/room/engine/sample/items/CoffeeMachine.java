@@ -15,11 +15,6 @@
  *******************************************************************************/
 package org.gameontext.room.engine.sample.items;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
 import javax.enterprise.inject.spi.CDI;
 
 import org.gameontext.room.Log;
@@ -42,34 +37,24 @@ public class CoffeeMachine extends ItemDesc {
                 .build(Type.ROOM_ITEM).build(Type.LINKWORD, "With").build(Type.INVENTORY_ITEM).build();
         private final CommandTemplate useCoffeeMachineWithRoomMug = new CommandTemplateBuilder().build(Type.ROOM_ITEM)
                 .build(Type.LINKWORD, "With").build(Type.ROOM_ITEM).build();
-        private final Set<CommandTemplate> templates = Collections
-                .unmodifiableSet(new HashSet<CommandTemplate>(Arrays.asList(new CommandTemplate[] { useCoffeeMachine,
-                        useCoffeeMachineWithInventoryMug, useCoffeeMachineWithRoomMug })));
-
-        @Override
-        public Set<CommandTemplate> getTemplates() {
-            return templates;
-        }
-
-        @Override
-        public boolean isHidden() {
-            return false;
-        }
-
-        @Override
-        public void processCommand(Room room, String execBy, ParsedCommand command) {
-            String key = command.key;
-            User u = room.getUserById(execBy);
-            if (u != null) {
-                if (key.equals(useCoffeeMachine.key)) {
+        {
+            register(useCoffeeMachine, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
                     room.playerEvent(execBy,
                             "You randomly press buttons on the coffee machine, hot liquid spills all over the floor, you mop it up, you decide that's probably not how this machine is supposed to be used.",
                             u.username
                                     + " uses the coffee machine, spilling coffee everywhere, then quietly mops it up while mumbling about reading instruction manuals");
-                } else if (key.equals(useCoffeeMachineWithInventoryMug.key)) {
+                }
+            });
+            register(useCoffeeMachineWithInventoryMug, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
                     Item i = (Item) command.args.get(2);
                     if (i.item == Items.mug) {
-                        if (i.item.getAndSetState("empty", "full") || i.item.getAndSetState("", "full")) {
+                        if (i.item.changeState(Mug.CONTENTS, Mug.Contents.EMPTY, Mug.Contents.FULL)) {
                             room.playerEvent(execBy, "You make a hot cup of coffee.",
                                     u.username + " makes a mug of coffee.");
                         } else {
@@ -81,7 +66,11 @@ public class CoffeeMachine extends ItemDesc {
                         room.playerEvent(execBy, "You try several times to get the Coffee Machine to interact with the "
                                 + i.item.name + " but can't seem to figure out how.", null);
                     }
-                } else if (key.equals(useCoffeeMachineWithRoomMug.key)) {
+                }
+            });
+            register(useCoffeeMachineWithRoomMug, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
                     Item i = (Item) command.args.get(2);
                     if (i.item == Items.mug) {
                         room.playerEvent(execBy,
@@ -91,10 +80,13 @@ public class CoffeeMachine extends ItemDesc {
                         room.playerEvent(execBy, "You try several times to get the Coffee Machine to interact with the "
                                 + i.item.name + " but can't seem to figure out how.", null);
                     }
-                } else {
-                  System.out.println("Unknown key passed "+key+ " fyi: "+useCoffeeMachineWithInventoryMug);
                 }
-            }
+            });
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
         }
 
         @Override
@@ -30,7 +30,7 @@ public class Cupboard extends ContainerDesc {
             User u = room.getUserById(execBy);
             if (u != null) {
                 if (u.inventory.contains(Items.stilettoHeels)
-                        && Items.stilettoHeels.getState().equals("wornby:" + u.id)) {
+                        && Items.stilettoHeels.isState(Stilettos.WEARING, Stilettos.Worn.WORN, u.id)) {
                     return true;
                 }
             }
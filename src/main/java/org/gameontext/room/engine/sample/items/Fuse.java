@@ -15,11 +15,6 @@
  *******************************************************************************/
 package org.gameontext.room.engine.sample.items;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
 import org.gameontext.room.engine.Room;
 import org.gameontext.room.engine.User;
 import org.gameontext.room.engine.meta.ItemDesc;
@@ -35,28 +30,13 @@ public class Fuse extends ItemDesc {
     public static final ItemUseHandler handler = new ItemUseHandler() {
         private final CommandTemplate useInventoryFuseWithRoomItem = new CommandTemplateBuilder()
                 .build(Type.INVENTORY_ITEM).build(Type.LINKWORD, "With").build(Type.CONTAINER_ITEM).build();
-        private final Set<CommandTemplate> templates = Collections.unmodifiableSet(
-                new HashSet<CommandTemplate>(Arrays.asList(new CommandTemplate[] { useInventoryFuseWithRoomItem })));
-
-        @Override
-        public Set<CommandTemplate> getTemplates() {
-            return templates;
-        }
-
-        @Override
-        public boolean isHidden() {
-            return false;
-        }
-
-        @Override
-        public void processCommand(Room room, String execBy, ParsedCommand command) {
-            String key = command.key;
-            User u = room.getUserById(execBy);
-            if (u != null) {
-                // every template has this item as the first item..
-                Item fuse = (Item) command.args.get(0);
-                ContainerItem jb = (ContainerItem) command.args.get(2);
-                if (key.equals(useInventoryFuseWithRoomItem.key)) {
+        {
+            register(useInventoryFuseWithRoomItem, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
+                    Item fuse = (Item) command.args.get(0);
+                    ContainerItem jb = (ContainerItem) command.args.get(2);
                     if (jb.item.equals(Items.jukebox)) {
                         room.playerEvent(execBy, "You take the fuse, and insert it into the jukebox. Fingers crossed!",
                                 u.username + " installs the fuse into the jukebox.");
@@ -67,7 +47,12 @@ public class Fuse extends ItemDesc {
                                 + jb.item.name + " but can't seem to figure out how.", null);
                     }
                 }
-            }
+            });
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
         }
 
         @Override
@@ -15,10 +15,7 @@
  *******************************************************************************/
 package org.gameontext.room.engine.sample.items;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.gameontext.room.engine.Room;
@@ -43,80 +40,28 @@ public class JukeBox extends ContainerDesc {
         private final CommandTemplate useJukeBoxWithRoomItem = new CommandTemplateBuilder().build(Type.CONTAINER_ITEM)
                 .build(Type.LINKWORD, "With").build(Type.ROOM_ITEM).build();
 
-        private final Set<CommandTemplate> templates = Collections
-                .unmodifiableSet(new HashSet<CommandTemplate>(Arrays.asList(new CommandTemplate[] { useJukeBoxInRoom,
-                        useJukeBoxWithInventoryItem, useJukeBoxWithRoomItem })));
-
-        @Override
-        public Set<CommandTemplate> getTemplates() {
-            return templates;
-        }
-
-        @Override
-        public boolean isHidden() {
-            return false;
-        }
-
-        // we really only want one jukebox to play at once ;p
-        AtomicBoolean isPlaying = new AtomicBoolean(false);
-
-        class JukeBoxPlayer implements Runnable {
-            Room room;
-
-            public JukeBoxPlayer(Room room) {
-                this.room = room;
-            }
-
-            @Override
-            public void run() {
-                if (isPlaying.compareAndSet(false, true)) {
-                    try {
-                        room.roomEvent("The jukebox sings \"Never gonna give you up.. \"");
-                        Thread.sleep(1000 * 10);
-                        room.roomEvent("The jukebox sings \"Never gonna let you down.. \"");
-                        Thread.sleep(1000 * 10);
-                        room.roomEvent("The jukebox sings \"Never gonna run around.. \"");
-                        Thread.sleep(1000 * 10);
-                        room.roomEvent("The jukebox sings \"And desert you.. \"");
-                        Thread.sleep(1000 * 5);
-                        room.roomEvent(
-                                "The jukebox emits a bright arc of light, and a small puff of smoke.. and stops working.");
-                        Thread.sleep(1000 * 1);
-                    } catch (InterruptedException io) {
-                        // ignore.
-                    }
-                    ContainerDesc box = (ContainerDesc) Items.jukebox;
-                    box.items.remove(Items.fuse);
-                    ContainerDesc cupboardBox = (ContainerDesc) Items.cupboard;
-                    cupboardBox.items.add(Items.fuse);
-                    room.roomEvent("You experience an odd feeling of deja vu.");
-                    isPlaying.compareAndSet(true, false);
-                }
-            }
-        }
-
-        @Override
-        public void processCommand(Room room, String execBy, ParsedCommand command) {
-            String key = command.key;
-            User u = room.getUserById(execBy);
-            if (u != null) {
-                // every template has this item as the first item..
-                ContainerItem jb = (ContainerItem) command.args.get(0);
-                if (key.equals(useJukeBoxInRoom.key)) {
-                    // use jukebox
-
+        {
+            register(useJukeBoxInRoom, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
+                    ContainerItem jb = (ContainerItem) command.args.get(0);
                     if (jb.container.items.contains(Items.fuse)) {
                         room.playerEvent(execBy, "The jukebox plays music, you are so happy!",
                                 u.username + " makes the jukebox play music.");
-                        (new Thread(new JukeBoxPlayer(room))).start();
+                        play(room);
                     } else {
                         room.playerEvent(execBy,
                                 "The jukebox appears to be non functional, there's a large slot marked 15A that appears to be empty.",
                                 null);
                     }
-                } else if (key.equals(useJukeBoxWithInventoryItem.key)) {
-                    // use jukebox with inventory item
-
+                }
+            });
+            register(useJukeBoxWithInventoryItem, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
+                    ContainerItem jb = (ContainerItem) command.args.get(0);
                     Item other = (Item) command.args.get(2);
                     if (other.item == Items.fuse) {
                         // yes, player has item in inventory
@@ -128,9 +73,11 @@ public class JukeBox extends ContainerDesc {
                         room.playerEvent(execBy, "You try several times to use the fuse with the " + other.item.name
                                 + " but can't seem to figure out how.", null);
                     }
-                } else {
-                    // use jukebox with room item.
-
+                }
+            });
+            register(useJukeBoxWithRoomItem, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
                     Item other = (Item) command.args.get(2);
                     // give a clue if it's the fuse.
                     if (other.item == Items.fuse) {
@@ -142,6 +89,51 @@ public class JukeBox extends ContainerDesc {
                                 + " but can't seem to figure out how.", null);
                     }
                 }
+            });
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
+        }
+
+        // we really only want one jukebox to play at once ;p
+        AtomicBoolean isPlaying = new AtomicBoolean(false);
+
+        private Runnable sing(final Room room, final String message) {
+            return new Runnable() {
+                @Override
+                public void run() {
+                    room.roomEvent(message);
+                }
+            };
+        }
+
+        private void play(final Room room) {
+            if (isPlaying.compareAndSet(false, true)) {
+                room.schedule(0, TimeUnit.SECONDS, sing(room, "The jukebox sings \"Never gonna give you up.. \""))
+                        .then(10, TimeUnit.SECONDS, sing(room, "The jukebox sings \"Never gonna let you down.. \""))
+                        .then(10, TimeUnit.SECONDS, sing(room, "The jukebox sings \"Never gonna run around.. \""))
+                        .then(10, TimeUnit.SECONDS, sing(room, "The jukebox sings \"And desert you.. \""))
+                        .then(5, TimeUnit.SECONDS, sing(room,
+                                "The jukebox emits a bright arc of light, and a small puff of smoke.. and stops working."))
+                        .then(1, TimeUnit.SECONDS, new Runnable() {
+                            @Override
+                            public void run() {
+                                ContainerDesc box = (ContainerDesc) Items.jukebox;
+                                box.items.remove(Items.fuse);
+                                ContainerDesc cupboardBox = (ContainerDesc) Items.cupboard;
+                                cupboardBox.items.add(Items.fuse);
+                                room.roomEvent("You experience an odd feeling of deja vu.");
+                            }
+                        })
+                        // however the song ends, the jukebox can be played again.
+                        .whenDone(new Runnable() {
+                            @Override
+                            public void run() {
+                                isPlaying.compareAndSet(true, false);
+                            }
+                        });
             }
         }
 
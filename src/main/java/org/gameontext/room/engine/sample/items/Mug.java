@@ -15,17 +15,13 @@
  *******************************************************************************/
 package org.gameontext.room.engine.sample.items;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
 import javax.enterprise.inject.spi.CDI;
 
 import org.gameontext.room.Log;
 import org.gameontext.room.engine.Room;
 import org.gameontext.room.engine.User;
 import org.gameontext.room.engine.meta.ItemDesc;
+import org.gameontext.room.engine.meta.StateTable;
 import org.gameontext.room.engine.parser.CommandTemplate;
 import org.gameontext.room.engine.parser.Item;
 import org.gameontext.room.engine.parser.ItemUseHandler;
@@ -36,13 +32,20 @@ import java.util.logging.Level;
 
 public class Mug extends ItemDesc {
 
+    public enum Contents {
+        EMPTY, FULL
+    }
+
+    public static final StateTable<Contents> CONTENTS = StateTable.of(Contents.class, Contents.EMPTY)
+            .allow(Contents.EMPTY, Contents.FULL).allow(Contents.FULL, Contents.EMPTY);
+
     public static final ItemDescriptionHandler descriptionHandler = new ItemDesc.ItemDescriptionHandler() {
         private static final String mugEmpty = "A Somewhat sturdy container for liquids, with a small handle.";
         private static final String mugFull = "A Somewhat sturdy container for liquids, with a small handle, full of steaming hot coffee.";
 
         @Override
         public String getDescription(ItemDesc item, String execBy, String cmd, Room room) {
-            if (item.getState().equals("full")) {
+            if (item.getState(CONTENTS) == Contents.FULL) {
                 return mugFull;
             } else {
                 return mugEmpty;
@@ -80,62 +83,52 @@ public class Mug extends ItemDesc {
                 .build(Type.ITEM_INSIDE_CONTAINER_ITEM).build(Type.LINKWORD, "With")
                 .build(Type.ITEM_INSIDE_CONTAINER_ITEM).build();
 
-        private final Set<CommandTemplate> templates = Collections.unmodifiableSet(
-                new HashSet<CommandTemplate>(Arrays.asList(new CommandTemplate[] { useMugInRoom, useMugInInventory,
-                        useMugInContainer, useMugInInventoryWithRoomItem, useMugInInventoryWithInventoryItem,
-                        useMugInInventoryWithItemInContainer, useMugInRoomWithRoomItem, useMugInRoomWithInventoryItem,
-                        useMugInRoomWithItemInContainer, useMugInContainerWithRoomItem,
-                        useMugInContainerWithInventoryItem, useMugInContainerWithItemInContainer })));
-
-        @Override
-        public Set<CommandTemplate> getTemplates() {
-            return templates;
-        }
-
-        @Override
-        public boolean isHidden() {
-            return false;
-        }
-
-        @Override
-        public void processCommand(Room room, String execBy, ParsedCommand command) {
-            String key = command.key;
-            User u = room.getUserById(execBy);
-            if (u != null) {
-                // every template has this item as the first item..
-                Item mug = (Item) command.args.get(0);
-                if (key.equals(useMugInInventory.key)) {
-                    if (mug.item.getAndSetState("full", "empty")) {
+        {
+            register(useMugInInventory, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
+                    Item mug = (Item) command.args.get(0);
+                    if (mug.item.changeState(CONTENTS, Contents.FULL, Contents.EMPTY)) {
                         room.playerEvent(execBy, "You drink the entire cup of coffee.",
                                 u.username + " drinks the mug of coffee.");
                     } else {
-                        // note that default state is "" not "empty", so the
-                        // else block works great here.
                         room.playerEvent(execBy, "You place the mug on your head. Nothing Happens. You put it back.",
                                 null);
                     }
-                } else if (key.equals(useMugInInventoryWithInventoryItem.key)
-                        || key.equals(useMugInInventoryWithItemInContainer.key)) {
-                    // user is holding mug, and trying to use it with an item in
-                    // inventory/container..
+                }
+            });
+            // user is holding mug, and trying to use it with an item in
+            // inventory/container..
+            TemplateCallback useWithHeldItem = new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
+                    Item mug = (Item) command.args.get(0);
                     Item i = (Item) command.args.get(2);
-                    if ("full".equals(mug.item.getState())) {
+                    if (mug.item.getState(CONTENTS) == Contents.FULL) {
                         room.playerEvent(execBy,
                                 "You pour the coffee onto the " + i.item.name
                                         + " and wait to see if anything happens. Nope. Not a thing. You pull out a hankerchief and gently dry the "
                                         + i.item.name,
                                 u.username + " pours coffee on the " + i.item.name);
                     } else {
-                        // note that default state is "" not "empty", so the
-                        // else block works great here.
                         room.playerEvent(execBy, "You fiddle with the mug and the " + i.item.name
                                 + ". Nothing Happens. You stop fiddling.", null);
                     }
-                } else if (key.equals(useMugInInventoryWithRoomItem.key)) {
+                }
+            };
+            register(useMugInInventoryWithInventoryItem, useWithHeldItem);
+            register(useMugInInventoryWithItemInContainer, useWithHeldItem);
+            register(useMugInInventoryWithRoomItem, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
                     // check if item is coffee machine =)
+                    User u = room.getUserById(execBy);
+                    Item mug = (Item) command.args.get(0);
                     Item i = (Item) command.args.get(2);
                     if (i.item == Items.coffeeMachine) {
-                        if (mug.item.getAndSetState("empty", "full") || mug.item.getAndSetState("", "full")) {
+                        if (mug.item.changeState(CONTENTS, Contents.EMPTY, Contents.FULL)) {
                             room.playerEvent(execBy, "You make a hot cup of coffee.",
                                     u.username + " makes a mug of coffee.");
                         } else {
@@ -147,17 +140,38 @@ public class Mug extends ItemDesc {
                         room.playerEvent(execBy, "You try several times to use the " + mug.item.name + " with the "
                                 + i.item.name + " but can't seem to figure out how.", null);
                     }
-                } else if (key.equals(useMugInRoom.key) || key.equals(useMugInContainer.key)) {
+                }
+            });
+            TemplateCallback useOutOfReach = new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
                     room.playerEvent(execBy,
                             "You try to telepathically manipulate the mug, and fail. Perhaps you should take the mug first?",
                             null);
-                } else {
+                }
+            };
+            register(useMugInRoom, useOutOfReach);
+            register(useMugInContainer, useOutOfReach);
+            // mug was in room, or in cupboard not in users inventory.
+            TemplateCallback useOutOfReachWithItem = new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
                     Item i = (Item) command.args.get(2);
-                    // mug was in room, or in cupboard not in users inventory.
                     room.playerEvent(execBy, "You try to telepathically make ther mug interact with the " + i.item.name
                             + ", and fail. Perhaps you should take the mug first?", null);
                 }
-            }
+            };
+            register(useMugInRoomWithRoomItem, useOutOfReachWithItem);
+            register(useMugInRoomWithInventoryItem, useOutOfReachWithItem);
+            register(useMugInRoomWithItemInContainer, useOutOfReachWithItem);
+            register(useMugInContainerWithRoomItem, useOutOfReachWithItem);
+            register(useMugInContainerWithInventoryItem, useOutOfReachWithItem);
+            register(useMugInContainerWithItemInContainer, useOutOfReachWithItem);
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
         }
 
         @Override
@@ -169,5 +183,6 @@ public class Mug extends ItemDesc {
 
     public Mug() {
         super("Mug", null, true, false, useHandler, descriptionHandler);
+        declareStates(CONTENTS);
     }
 }
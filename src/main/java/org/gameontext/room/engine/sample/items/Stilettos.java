@@ -15,14 +15,10 @@
  *******************************************************************************/
 package org.gameontext.room.engine.sample.items;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-
 import org.gameontext.room.engine.Room;
 import org.gameontext.room.engine.User;
 import org.gameontext.room.engine.meta.ItemDesc;
+import org.gameontext.room.engine.meta.StateTable;
 import org.gameontext.room.engine.parser.CommandTemplate;
 import org.gameontext.room.engine.parser.Item;
 import org.gameontext.room.engine.parser.ItemUseHandler;
@@ -31,6 +27,13 @@ import org.gameontext.room.engine.parser.Node.Type;
 
 public class Stilettos extends ItemDesc {
 
+    public enum Worn {
+        OFF, WORN
+    }
+
+    // once on, they stay on until dropped, which resets them.
+    public static final StateTable<Worn> WEARING = StateTable.of(Worn.class, Worn.OFF).allow(Worn.OFF, Worn.WORN);
+
     public static ItemUseHandler useHandler = new ItemUseHandler() {
 
         private final CommandTemplate useStilettosInRoom = new CommandTemplateBuilder().build(Type.ROOM_ITEM).build();
@@ -39,33 +42,21 @@ public class Stilettos extends ItemDesc {
         private final CommandTemplate useStilettosWithRoomItem = new CommandTemplateBuilder().build(Type.INVENTORY_ITEM)
                 .build(Type.LINKWORD, "With").build(Type.ROOM_ITEM).build();
 
-        private final Set<CommandTemplate> templates = Collections
-                .unmodifiableSet(new HashSet<CommandTemplate>(Arrays.asList(new CommandTemplate[] { useStilettosInRoom,
-                        useStilettosInInventory, useStilettosWithRoomItem })));
-
-        @Override
-        public Set<CommandTemplate> getTemplates() {
-            return templates;
-        }
-
-        @Override
-        public boolean isHidden() {
-            return false;
-        }
-
-        @Override
-        public void processCommand(Room room, String execBy, ParsedCommand command) {
-            String key = command.key;
-            User u = room.getUserById(execBy);
-            if (u != null) {
-                // every template has this item as the first item..
-                Item heels = (Item) command.args.get(0);
-                if (key.equals(useStilettosInRoom.key)) {
+        {
+            register(useStilettosInRoom, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
                     room.playerEvent(execBy,
                             "From here, it looks like they might be your size, but you can't be sure, perhaps if you picked them up?",
                             null);
-                } else if (key.equals(useStilettosInInventory.key)) {
-                    if (heels.item.getAndSetState("", "wornby:" + u.id)) {
+                }
+            });
+            register(useStilettosInInventory, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
+                    Item heels = (Item) command.args.get(0);
+                    if (heels.item.changeState(WEARING, Worn.OFF, Worn.WORN, u.id)) {
                         room.playerEvent(execBy,
                                 "You look at the heels carefully, and realise they are just your size. You slip your feet into the shoes, and slowly stand up. You feel taller!",
                                 u.username + " wears the stilettos.");
@@ -75,10 +66,16 @@ public class Stilettos extends ItemDesc {
                                 "You consider carefully how to use the stilettos now you are already wearing them, and decide to perform a little dance.",
                                 u.username + " does a dainty little dance in the heels.");
                     }
-                } else if (key.equals(useStilettosWithRoomItem.key)) {
+                }
+            });
+            register(useStilettosWithRoomItem, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    User u = room.getUserById(execBy);
+                    Item heels = (Item) command.args.get(0);
                     Item other = (Item) command.args.get(2);
                     if (other.item.equals(Items.cupboard)) {
-                        if (heels.item.getAndSetState("", "wornby:" + u.id)) {
+                        if (heels.item.changeState(WEARING, Worn.OFF, Worn.WORN, u.id)) {
                             room.playerEvent(execBy,
                                     "You look at the heels carefully, and realise they are just your size. You slip your feet into the shoes, and slowly stand up. You feel tall enough to see into the cupboard now.",
                                     u.username + " wears the stilettos.");
@@ -93,7 +90,12 @@ public class Stilettos extends ItemDesc {
                                 + other.item.name + " but can't seem to figure out how.", null);
                     }
                 }
-            }
+            });
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
         }
 
         @Override
@@ -106,5 +108,6 @@ public class Stilettos extends ItemDesc {
 
     public Stilettos() {
         super("Stilettos", "A bright red pair of six inch stiletto heels.", true, true, useHandler);
+        declareStates(WEARING);
     }
 }
@@ -0,0 +1,183 @@
+package org.gameontext.room.registration;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.gameontext.room.Log;
+
+/**
+ * What we last found out about the health of the map service.
+ *
+ * A probe result is reused for a short while, rather than probing again for
+ * every room. After enough failures in a row the circuit opens, and no more
+ * probes (or registrations) are attempted until a backoff has passed, that
+ * doubles each time a probe after the backoff also fails, with some jitter
+ * so a fleet of room services don't all retry together.
+ */
+public class MapHealth {
+
+    public enum State {
+        // map looks healthy, or hasn't failed often enough to give up on
+        CLOSED,
+        // backing off, map isn't being asked anything
+        OPEN,
+        // backoff has passed, the next probe decides which way we go
+        HALF_OPEN
+    }
+
+    private final Supplier<Boolean> probe;
+    private final long ttl;
+    private final int failureThreshold;
+    private final long initialBackoff;
+    private final long maxBackoff;
+
+    // held while probing, so only one probe is ever in flight, the fields
+    // are also read without it, eg. by the health check.
+    private final Object probeLock = new Object();
+    private volatile State state = State.CLOSED;
+    private volatile boolean lastResult;
+    private volatile long lastProbe;
+    private volatile boolean probed;
+    private volatile int failures;
+    private volatile long backoff;
+    private volatile long nextAttempt;
+
+    // counted once registered, see register(MetricRegistry).
+    private volatile Counter probes;
+    private volatile Counter probeFailures;
+    private volatile Counter opened;
+
+    /**
+     * @param probe asks the map if it is healthy, right now
+     * @param ttlMs how long a probe result is reused for
+     * @param failureThreshold failures in a row before the circuit opens
+     * @param initialBackoffMs how long the circuit first stays open for
+     * @param maxBackoffMs the most the backoff doubles up to
+     */
+    public MapHealth(Supplier<Boolean> probe, long ttlMs, int failureThreshold, long initialBackoffMs,
+            long maxBackoffMs) {
+        this.probe = probe;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.initialBackoff = Math.max(1, initialBackoffMs);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoffMs);
+    }
+
+    /**
+     * @return true if the map is healthy, probing it only if the last result
+     *         is too old, and never while the circuit is open.
+     */
+    public boolean isHealthy() {
+        synchronized (probeLock) {
+            long now = System.nanoTime();
+            if (state == State.OPEN) {
+                if (now - nextAttempt < 0) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+            } else if (state == State.CLOSED && probed && now - lastProbe < ttl) {
+                return lastResult;
+            }
+
+            boolean ok;
+            try {
+                ok = Boolean.TRUE.equals(probe.get());
+            } catch (RuntimeException e) {
+                Log.log(Level.SEVERE, this, "Error checking map service health : {0}", e.toString());
+                ok = false;
+            }
+            count(probes);
+            lastProbe = System.nanoTime();
+            probed = true;
+            lastResult = ok;
+
+            if (ok) {
+                if (state != State.CLOSED) {
+                    Log.log(Level.INFO, this, "Map service is healthy again, closing circuit");
+                }
+                failures = 0;
+                backoff = 0;
+                state = State.CLOSED;
+            } else {
+                count(probeFailures);
+                failures++;
+                if (state == State.HALF_OPEN || failures >= failureThreshold) {
+                    open();
+                }
+            }
+            return ok;
+        }
+    }
+
+    /**
+     * @return false while the circuit is open and backing off, when there
+     *         is no point trying to reach the map.
+     */
+    public boolean isRetryDue() {
+        return state != State.OPEN || System.nanoTime() - nextAttempt >= 0;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getConsecutiveFailures() {
+        return failures;
+    }
+
+    /**
+     * @return milliseconds until the map will next be tried, 0 if it can be
+     *         tried now.
+     */
+    public long getRetryDelay() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(nextAttempt - System.nanoTime()));
+    }
+
+    /**
+     * Publish the circuit state, and how often the map has been probed, to
+     * the registry.
+     */
+    public void register(MetricRegistry registry) {
+        registry.register("map_circuit_state", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return state.ordinal();
+            }
+        });
+        registry.register("map_health_consecutive_failures", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return failures;
+            }
+        });
+        probes = registry.counter("map_health_probes");
+        probeFailures = registry.counter("map_health_probe_failures");
+        opened = registry.counter("map_circuit_opened");
+    }
+
+    private static void count(Counter counter) {
+        if (counter != null) {
+            counter.inc();
+        }
+    }
+
+    // caller must hold the probe lock.
+    private void open() {
+        backoff = backoff == 0 ? initialBackoff : Math.min(maxBackoff, backoff * 2);
+        // somewhere in the top half of the backoff.
+        long wait = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        nextAttempt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait);
+        state = State.OPEN;
+        count(opened);
+        Log.log(Level.WARNING, this, "Map service unhealthy after {0} attempts, not trying again for {1}ms",
+                failures, wait);
+    }
+}
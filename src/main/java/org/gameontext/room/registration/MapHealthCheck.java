@@ -0,0 +1,34 @@
+package org.gameontext.room.registration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+
+import io.smallrye.health.api.HealthGroup;
+
+/**
+ * Reports what we know of the map service, under /health/group/map.
+ *
+ * Kept out of liveness and readiness, rooms carry on working for players
+ * already in them while the map is away.
+ */
+@Singleton
+@HealthGroup("map")
+public class MapHealthCheck implements HealthCheck {
+    @Inject
+    RoomRegistrationHandler rrh;
+
+    @Override
+    public HealthCheckResponse call() {
+        MapHealth health = rrh.getMapHealth();
+        return HealthCheckResponse.named("map")
+                .status(health.getState() == MapHealth.State.CLOSED)
+                .withData("circuit", health.getState().name())
+                .withData("consecutiveFailures", health.getConsecutiveFailures())
+                .withData("retryInMs", health.getRetryDelay())
+                .withData("roomsToRegister", rrh.roomsToRegister.size())
+                .build();
+    }
+}
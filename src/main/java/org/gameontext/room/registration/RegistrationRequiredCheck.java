@@ -13,6 +13,7 @@ public class RegistrationRequiredCheck implements SkipPredicate {
 
     public boolean test(ScheduledExecution execution){
         //Skip registration if there are no rooms to register =)
-        return rrh.roomsToRegister.isEmpty();
+        //or if we are backing off from an unhealthy map.
+        return rrh.roomsToRegister.isEmpty() || !rrh.getMapHealth().isRetryDue();
     }
 }
\ No newline at end of file
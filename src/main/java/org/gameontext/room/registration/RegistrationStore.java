@@ -0,0 +1,159 @@
+package org.gameontext.room.registration;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import javax.json.JsonObject;
+
+import org.gameontext.room.Log;
+
+/**
+ * Remembers, across restarts, what the map last accepted for each room, as
+ * a hash of the registration payload, along with the id the map gave it.
+ * Changes are only written out when {@link #saveIfDirty()} is called, eg.
+ * once at the end of a registration pass.
+ *
+ * While running, also holds the room document last fetched from the map,
+ * with its ETag, so it can be asked for again conditionally.
+ */
+class RegistrationStore {
+
+    static class Entry {
+        final String hash;
+        final String mapId;
+
+        Entry(String hash, String mapId) {
+            this.hash = hash;
+            this.mapId = mapId;
+        }
+
+        boolean matches(String hash, String mapId) {
+            return this.hash.equals(hash) && this.mapId.equals(mapId);
+        }
+    }
+
+    static class Document {
+        final JsonObject document;
+        final String etag;
+
+        Document(JsonObject document, String etag) {
+            this.document = document;
+            this.etag = etag;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, Document> documents = new ConcurrentHashMap<String, Document>();
+    // set when entries has changed since it was last saved.
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+
+    RegistrationStore(Path file) {
+        this.file = file;
+        Properties saved = new Properties();
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            saved.load(r);
+        } catch (NoSuchFileException e) {
+            Log.log(Level.FINE, this, "No room registrations saved at {0} yet", file);
+        } catch (IOException e) {
+            Log.log(Level.WARNING, this, "Unable to read room registrations from " + file, e);
+        }
+        for (String name : saved.stringPropertyNames()) {
+            if (name.endsWith(".hash")) {
+                String roomId = name.substring(0, name.length() - ".hash".length());
+                String mapId = saved.getProperty(roomId + ".id");
+                if (mapId != null) {
+                    entries.put(roomId, new Entry(saved.getProperty(name), mapId));
+                }
+            }
+        }
+        if (!entries.isEmpty()) {
+            Log.log(Level.FINE, this, "Loaded {0} room registrations from {1}", entries.size(), file);
+        }
+    }
+
+    Entry get(String roomId) {
+        return entries.get(roomId);
+    }
+
+    void put(String roomId, String hash, String mapId) {
+        Entry known = entries.get(roomId);
+        if (known != null && known.matches(hash, mapId)) {
+            return;
+        }
+        entries.put(roomId, new Entry(hash, mapId));
+        dirty.set(true);
+    }
+
+    void remove(String roomId) {
+        documents.remove(roomId);
+        if (entries.remove(roomId) != null) {
+            dirty.set(true);
+        }
+    }
+
+    Document getDocument(String roomId) {
+        return documents.get(roomId);
+    }
+
+    void putDocument(String roomId, JsonObject document, String etag) {
+        documents.put(roomId, new Document(document, etag));
+    }
+
+    /**
+     * @return a hash of the payload, hex encoded.
+     */
+    static String hash(String payload) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(payload.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has to provide SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write out every room's entry, if any have changed since the last save.
+     * Written to the side then moved into place, so a crash part way through
+     * never leaves half a file.
+     */
+    synchronized void saveIfDirty() {
+        if (!dirty.compareAndSet(true, false)) {
+            return;
+        }
+        Properties saved = new Properties();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            saved.setProperty(e.getKey() + ".hash", e.getValue().hash);
+            saved.setProperty(e.getKey() + ".id", e.getValue().mapId);
+        }
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                saved.store(w, "Last registration accepted by the map, per room");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // try again next time.
+            dirty.set(true);
+            Log.log(Level.WARNING, this, "Unable to save room registrations to " + file, e);
+        }
+    }
+}
@@ -2,15 +2,33 @@ package org.gameontext.room.registration;
 
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.json.Json;
 import javax.json.JsonArray;
@@ -24,11 +42,15 @@ import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.gameontext.room.Log;
 import org.gameontext.room.engine.Engine;
 import org.gameontext.room.engine.Room;
@@ -56,10 +78,58 @@ public class RoomRegistrationHandler {
     String mapLocation;
     @ConfigProperty( name = "MAP_HEALTH_SERVICE_URL", defaultValue = "x")
     String mapHealth;
+    // how many rooms to register with the map at once.
+    @ConfigProperty( name = "REGISTRATION_PARALLELISM", defaultValue = "4")
+    int parallelism;
+    @ConfigProperty( name = "MAP_CONNECT_TIMEOUT_MS", defaultValue = "5000")
+    long connectTimeout;
+    @ConfigProperty( name = "MAP_READ_TIMEOUT_MS", defaultValue = "10000")
+    long readTimeout;
+    // how long a map health check is believed for, how many failures in a
+    // row before we back off, and how far.
+    @ConfigProperty( name = "MAP_HEALTH_TTL_MS", defaultValue = "5000")
+    long healthTtl;
+    @ConfigProperty( name = "MAP_HEALTH_FAILURE_THRESHOLD", defaultValue = "3")
+    int healthFailureThreshold;
+    @ConfigProperty( name = "MAP_BACKOFF_INITIAL_MS", defaultValue = "15000")
+    long initialBackoff;
+    @ConfigProperty( name = "MAP_BACKOFF_MAX_MS", defaultValue = "300000")
+    long maxBackoff;
+
+    // where to remember what the map last accepted for each room, so a
+    // restart doesn't have to compare every room again. Should be on a
+    // volume that outlives the container, the default in the temp dir
+    // usually doesn't.
+    @ConfigProperty( name = "REGISTRATION_STATE_FILE")
+    Optional<String> stateFile;
+
+    // how many registered rooms to refresh the exits of on each refresh.
+    @ConfigProperty( name = "EXIT_REFRESH_BATCH_SIZE", defaultValue = "50")
+    int refreshBatchSize;
+
+    @Inject
+    MetricRegistry metrics;
 
     CopyOnWriteArraySet<Room> roomsToRegister = new CopyOnWriteArraySet<>();
     boolean schedLog = false;
 
+    private ExecutorService registrationPool;
+    // shared by every call to the map, signed, and unsigned for health.
+    private Client mapClient;
+    private Client healthClient;
+    private MapHealth health;
+    private RegistrationStore store;
+    // set while a registration pass is running, so passes don't overlap.
+    private final AtomicBoolean inProgress = new AtomicBoolean(false);
+    // set while registered rooms are having their exits refreshed, and
+    // where in the rooms the next refresh picks up from.
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final AtomicInteger refreshCursor = new AtomicInteger();
+    // the registration pass waiting for the map's backoff to end, if any,
+    // and whether we have shut down, so no more are waited for.
+    private ScheduledFuture<?> retry;
+    private boolean stopped = false;
+
     RoomRegistrationHandler(){          
     }
 
@@ -70,6 +140,11 @@ public class RoomRegistrationHandler {
         Log.log(Level.FINE, this, " - MAP_SERVICE_URL="+mapLocation);
         Log.log(Level.FINE, this, " - MAP_HEALTH_SERVICE_URL="+mapHealth);
         Log.log(Level.FINE, this, " - MAP_KEY(length)="+secret.length());
+        Log.log(Level.FINE, this, " - REGISTRATION_PARALLELISM="+parallelism);
+        Log.log(Level.FINE, this, " - MAP_CONNECT_TIMEOUT_MS="+connectTimeout);
+        Log.log(Level.FINE, this, " - MAP_READ_TIMEOUT_MS="+readTimeout);
+        Log.log(Level.FINE, this, " - EXIT_REFRESH_BATCH_SIZE="+refreshBatchSize);
+        Log.log(Level.FINE, this, " - REGISTRATION_STATE_FILE="+stateFile.orElse("(default)"));
     }
 
     private static class RegistrationResult {
@@ -86,67 +161,409 @@ public class RoomRegistrationHandler {
 
     @PostConstruct
     void registerRooms(){
+        mapClient = buildClient();
+        // add our request signer
+        mapClient.register(new SignedClientRequestFilter(mapuserid, secret));
+        healthClient = buildClient();
+        health = new MapHealth(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return mapIsHealthy();
+            }
+        }, healthTtl, healthFailureThreshold, initialBackoff, maxBackoff);
+        health.register(metrics);
+        Path statePath;
+        if(stateFile.isPresent()){
+            statePath = Paths.get(stateFile.get());
+        }else{
+            // one file per map and system id, so room services on the same
+            // host don't overwrite each other's.
+            statePath = Paths.get(System.getProperty("java.io.tmpdir"), "gameon-room-registrations-"
+                    + RegistrationStore.hash(mapuserid + "@" + mapLocation).substring(0, 16) + ".properties");
+            Log.log(Level.WARNING, this, "REGISTRATION_STATE_FILE is not set, keeping registration state in "+statePath
+                    +", which is lost when the container restarts, and every room is then compared with the map again.");
+        }
+        store = new RegistrationStore(statePath);
+
         Engine e = Engine.getEngine();
         for(Room room : e.getRooms()){
             roomsToRegister.add(room);
         }
     }
 
+    MapHealth getMapHealth(){
+        return health;
+    }
+
+    @PreDestroy
+    synchronized void shutdown(){
+        stopped = true;
+        if(retry!=null){
+            retry.cancel(false);
+        }
+        if(registrationPool!=null){
+            registrationPool.shutdownNow();
+        }
+        if(mapClient!=null){
+            mapClient.close();
+        }
+        if(healthClient!=null){
+            healthClient.close();
+        }
+    }
+
+    private synchronized ExecutorService getRegistrationPool(){
+        if(registrationPool==null){
+            final AtomicInteger count = new AtomicInteger();
+            registrationPool = Executors.newFixedThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "room-registration-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return registrationPool;
+    }
+
+    /**
+     * Register any rooms the map doesn't have yet. Runs every 15s, except
+     * while backing off from an unhealthy map, when the next pass is instead
+     * scheduled for when the backoff ends, see scheduleRetry().
+     */
     @Scheduled(every = "15s", skipExecutionIf = RegistrationRequiredCheck.class)
     void attemptRegistration(){
         if(!schedLog){ logConfig(); schedLog=true; }
+        if(!inProgress.compareAndSet(false, true)){
+            Log.log(Level.FINE, this, "Scheduled registration skipped, previous attempt still running.");
+            return;
+        }
         Log.log(Level.FINE, this, "Scheduled registration invoked currently "+roomsToRegister.size()+" rooms remaining.");
-        Set<Room> successful = new HashSet<Room>();
-        for(Room r : roomsToRegister){
-            Log.log(Level.FINE, this, " - Checking registration for room "+r.getRoomId());
-            RegistrationResult rr = checkExistingRegistration(r);
-            Log.log(Level.FINE, this, " - Room "+r.getRoomId()+" had status of "+rr.type.toString());
-            switch(rr.type){
-                case REGISTERED:{
-                    RegistrationResult updatedRegistration = compareRoomAndUpdateIfRequired(r, rr.registeredObject);
-                    if(updatedRegistration.type == RegistrationResult.Type.REGISTERED){
-                        updateRoomWithExits(r, updatedRegistration.registeredObject);
-                        successful.add(r);
-                    }
-                    break;
+        final ExecutorService pool = getRegistrationPool();
+        // check the map is there once, then register every pending room at
+        // once, up to the size of the pool, without holding up the scheduler.
+        CompletableFuture.supplyAsync(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return health.isHealthy();
+            }
+        }, pool).thenCompose(new Function<Boolean, CompletionStage<Void>>() {
+            @Override
+            public CompletionStage<Void> apply(Boolean healthy) {
+                if(!healthy){
+                    //we'll try again once the map health backoff allows.
+                    return CompletableFuture.completedFuture(null);
                 }
-                case NOT_REGISTERED:{
-                    RegistrationResult newRegistration = registerOrUpdateRoom(Mode.REGISTER, r, null);
-                    if(newRegistration.type == RegistrationResult.Type.REGISTERED){
-                        updateRoomWithExits(r, newRegistration.registeredObject);
-                        successful.add(r);
-                    }
-                    break;
+                List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+                for(final Room r : roomsToRegister){
+                    pending.add(CompletableFuture.runAsync(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(registerRoom(r)){
+                                roomsToRegister.remove(r);
+                            }
+                        }
+                    }, pool));
                 }
-                case SERVICE_UNAVAILABLE:{
-                    //we'll be called again in 10s, and maybe the service will work then!
-                    break;
+                return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()]));
+            }
+        }).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable t) {
+                // write out what the map accepted, once for the whole pass.
+                store.saveIfDirty();
+                inProgress.set(false);
+                if(t!=null){
+                    Log.log(Level.SEVERE, RoomRegistrationHandler.this, "Error during scheduled registration", t);
+                }
+                scheduleRetry();
+                Log.log(Level.FINE, RoomRegistrationHandler.this, "Scheduled registration completing with "+roomsToRegister.size()+" rooms remaining.");
+            }
+        });
+    }
+
+    /**
+     * Pick up changes the map has made to the exits of rooms that are already
+     * registered, eg. when a neighbouring room comes or goes. Works through
+     * the rooms a batch at a time, asking for each only if it has changed.
+     */
+    @Scheduled(every = "${EXIT_REFRESH_INTERVAL:5m}", delayed = "1m")
+    void refreshExits(){
+        if(!health.isRetryDue() || !refreshing.compareAndSet(false, true)){
+            return;
+        }
+        List<Room> registered = new ArrayList<Room>();
+        for(Room r : Engine.getEngine().getRooms()){
+            if(!roomsToRegister.contains(r) && store.get(r.getRoomId())!=null){
+                registered.add(r);
+            }
+        }
+        if(registered.isEmpty()){
+            refreshing.set(false);
+            return;
+        }
+        int count = Math.min(Math.max(1, refreshBatchSize), registered.size());
+        int from = Math.floorMod(refreshCursor.getAndAdd(count), registered.size());
+        final List<Room> batch = new ArrayList<Room>(count);
+        for(int i=0; i<count; i++){
+            batch.add(registered.get((from + i) % registered.size()));
+        }
+        Log.log(Level.FINE, this, "Refreshing exits for "+count+" of "+registered.size()+" registered rooms.");
+
+        final ExecutorService pool = getRegistrationPool();
+        CompletableFuture.supplyAsync(new Supplier<Boolean>() {
+            @Override
+            public Boolean get() {
+                return health.isHealthy();
+            }
+        }, pool).thenCompose(new Function<Boolean, CompletionStage<Void>>() {
+            @Override
+            public CompletionStage<Void> apply(Boolean healthy) {
+                if(!healthy){
+                    return CompletableFuture.completedFuture(null);
+                }
+                List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+                for(final Room r : batch){
+                    pending.add(CompletableFuture.runAsync(new Runnable() {
+                        @Override
+                        public void run() {
+                            refreshRoom(r);
+                        }
+                    }, pool));
+                }
+                return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[pending.size()]));
+            }
+        }).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable t) {
+                // rooms the map no longer knows are forgotten.
+                store.saveIfDirty();
+                refreshing.set(false);
+                if(t!=null){
+                    Log.log(Level.SEVERE, RoomRegistrationHandler.this, "Error refreshing room exits", t);
+                }
+                scheduleRetry();
+            }
+        });
+    }
+
+    /**
+     * If the map is being backed off from, and there are rooms still to
+     * register, try them again as soon as the backoff ends, rather than on
+     * the first 15s tick after it.
+     */
+    private synchronized void scheduleRetry(){
+        if(stopped || retry!=null || roomsToRegister.isEmpty() || health.getState()!=MapHealth.State.OPEN){
+            return;
+        }
+        long delay = health.getRetryDelay();
+        Log.log(Level.FINE, this, "Next registration attempt in "+delay+"ms.");
+        retry = Engine.getEngine().getRoomScheduler().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(RoomRegistrationHandler.this){
+                    retry = null;
+                }
+                if(!roomsToRegister.isEmpty() && health.isRetryDue()){
+                    attemptRegistration();
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshRoom(Room r){
+        RegistrationStore.Entry known = store.get(r.getRoomId());
+        if(known==null){
+            return;
+        }
+        RegistrationStore.Document before = store.getDocument(r.getRoomId());
+        RegistrationResult rr = fetchRegistration(r, known.mapId);
+        switch(rr.type){
+            case REGISTERED:{
+                if(before!=null && rr.registeredObject==before.document){
+                    // map said nothing changed.
+                    return;
+                }
+                Map<String,ExitDesc> exits = buildExits(r, rr.registeredObject);
+                if(exitsChanged(r, exits)){
+                    Log.log(Level.INFO, this, "Exits for room {0} changed in map, updating.", r.getRoomId());
+                    r.setExits(exits);
                 }
-            }            
+                return;
+            }
+            case NOT_REGISTERED:{
+                // map has lost the room, register it again.
+                Log.log(Level.WARNING, this, "Room {0} no longer known to map, will register again.", r.getRoomId());
+                store.remove(r.getRoomId());
+                roomsToRegister.add(r);
+                return;
+            }
+            default:{
+                // try again next time round.
+                return;
+            }
+        }
+    }
+
+    // true if the exits differ from those the room has now, in direction,
+    // or any detail of the exit.
+    private boolean exitsChanged(Room r, Map<String,ExitDesc> exits){
+        Collection<ExitDesc> current = r.getExits();
+        if(current.size()!=exits.size()){
+            return true;
+        }
+        Map<ExitDesc.Direction,String> now = new HashMap<ExitDesc.Direction,String>();
+        for(ExitDesc e : current){
+            now.put(e.getDirection(), e.toJsonString());
         }
-        Log.log(Level.FINE, this, "Scheduled registration removing "+successful.size()+" rooms from registration set");
-        roomsToRegister.removeAll(successful);
-        Log.log(Level.FINE, this, "Scheduled registration completing with "+roomsToRegister.size()+" rooms remaining.");
+        for(ExitDesc e : exits.values()){
+            if(!e.toJsonString().equals(now.get(e.getDirection()))){
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Obtain a jaxrs client configured appropriately for ssl to map.
+     * Make sure the room is registered with the map, and up to date there.
+     * @return true if it is, false if it needs trying again later.
      */
-    private Client getClient(){
+    private boolean registerRoom(Room r){
+        String hash = null;
+        String payload = buildRegistrationPayload(r);
+        if(payload!=null){
+            hash = RegistrationStore.hash(payload);
+            RegistrationStore.Entry known = store.get(r.getRoomId());
+            if(known!=null && hash.equals(known.hash)){
+                // the map already accepted exactly this from us, we only need
+                // the room back from it for the exits.
+                Log.log(Level.FINE, this, " - Room "+r.getRoomId()+" unchanged since last registered as "+known.mapId);
+                RegistrationResult rr = fetchRegistration(r, known.mapId);
+                if(rr.type == RegistrationResult.Type.REGISTERED){
+                    updateRoomWithExits(r, rr.registeredObject);
+                    return true;
+                }
+                if(rr.type == RegistrationResult.Type.SERVICE_UNAVAILABLE){
+                    return false;
+                }
+                // map has forgotten the room, go the long way round.
+                store.remove(r.getRoomId());
+            }
+        }
 
-        //Build client that uses the SSLContext defined by 'DefaultSSLSettings' in server.xml
-        Client client = ClientBuilder.newBuilder()
-                                       .build();
-        // add our request signer
-        client.register(new SignedClientRequestFilter(mapuserid, secret));
-  
-        return client;
-      }
+        Log.log(Level.FINE, this, " - Checking registration for room "+r.getRoomId());
+        RegistrationResult rr = checkExistingRegistration(r);
+        Log.log(Level.FINE, this, " - Room "+r.getRoomId()+" had status of "+rr.type.toString());
+        switch(rr.type){
+            case REGISTERED:{
+                RegistrationResult updatedRegistration = compareRoomAndUpdateIfRequired(r, rr.registeredObject);
+                if(updatedRegistration.type == RegistrationResult.Type.REGISTERED){
+                    remember(r, hash, updatedRegistration.registeredObject);
+                    updateRoomWithExits(r, updatedRegistration.registeredObject);
+                    return true;
+                }
+                return false;
+            }
+            case NOT_REGISTERED:{
+                RegistrationResult newRegistration = registerOrUpdateRoom(Mode.REGISTER, r, null);
+                if(newRegistration.type == RegistrationResult.Type.REGISTERED){
+                    remember(r, hash, newRegistration.registeredObject);
+                    updateRoomWithExits(r, newRegistration.registeredObject);
+                    return true;
+                }
+                return false;
+            }
+            default:{
+                //we'll be called again in 15s, and maybe the service will work then!
+                return false;
+            }
+        }
+    }
+
+    // the map now holds exactly what we'd register, note it for next time.
+    private void remember(Room r, String hash, JsonObject registered){
+        if(hash!=null && registered.containsKey("_id")){
+            store.put(r.getRoomId(), hash, registered.getString("_id"));
+        }
+    }
+
+    /**
+     * Get the room document the map holds for the room, asking only for it
+     * to be sent if it has changed, when we have a copy already.
+     */
+    private RegistrationResult fetchRegistration(Room room, String mapId){
+        RegistrationStore.Document cached = store.getDocument(room.getRoomId());
+        Invocation.Builder builder = getClient().target(mapLocation).path("{roomId}").resolveTemplate("roomId", mapId).request(MediaType.APPLICATION_JSON);
+        if(cached!=null && cached.etag!=null){
+            builder = builder.header(HttpHeaders.IF_NONE_MATCH, cached.etag);
+        }
+        RegistrationResult result = new RegistrationResult();
+        Response response = null;
+        try {
+            response = builder.get();
+            int code = response.getStatus();
+            switch(code){
+                case 200:{
+                    String respString = response.readEntity(String.class);
+                    result.registeredObject = Json.createReader(new StringReader(respString)).readObject();
+                    EntityTag tag = response.getEntityTag();
+                    store.putDocument(room.getRoomId(), result.registeredObject, tag!=null ? tag.toString() : null);
+                    result.type = RegistrationResult.Type.REGISTERED;
+                    return result;
+                }
+                case 304:{
+                    Log.log(Level.FINE, this, "Room "+room.getRoomId()+" unchanged in map");
+                    result.registeredObject = cached.document;
+                    result.type = RegistrationResult.Type.REGISTERED;
+                    return result;
+                }
+                case 404:{
+                    result.type = RegistrationResult.Type.NOT_REGISTERED;
+                    return result;
+                }
+                default:{
+                    Log.log(Level.FINE, this,"Room "+room.getRoomId()+" had rc of "+code+" when fetched.");
+                    return MAP_UNAVAILABLE;
+                }
+            }
+        } catch (RuntimeException e){
+            Log.log(Level.SEVERE, this, "Exception occurred fetching room "+room.getRoomId()+" from map", e);
+            return MAP_UNAVAILABLE;
+        } finally {
+            if(response!=null){
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Build a jaxrs client for the map, with timeouts, and with enough pooled
+     * keep-alive connections for every registration running at once.
+     */
+    private Client buildClient(){
+        ClientBuilder builder = ClientBuilder.newBuilder()
+                                       .connectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                                       .readTimeout(readTimeout, TimeUnit.MILLISECONDS);
+        if(builder instanceof ResteasyClientBuilder){
+            int connections = Math.max(1, parallelism);
+            ((ResteasyClientBuilder)builder).connectionPoolSize(connections)
+                                            .maxPooledPerRoute(connections)
+                                            .connectionCheckoutTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Obtain the shared jaxrs client for signed requests to map.
+     */
+    private Client getClient(){
+        return mapClient;
+    }
 
     private boolean mapIsHealthy(){
         try {
-            Client cleanClient = ClientBuilder.newBuilder().build();  
-            Response response = cleanClient.target(mapHealth)
+            Response response = healthClient.target(mapHealth)
                                     .request(MediaType.APPLICATION_JSON)
                                     .get();
             response.close();
@@ -167,12 +584,8 @@ public class RoomRegistrationHandler {
      */
     private RegistrationResult checkExistingRegistration(Room room) {
 
-        // If map service isn't healthy yet, don't even bother (but make sure
-        // to try again later!)
-        if ( !mapIsHealthy() ) {
-            return MAP_UNAVAILABLE;
-        }
-
+        // map service health was checked (or remembered) once for the whole
+        // registration pass.
         RegistrationResult result = new RegistrationResult();
         try {
             Client queryClient = getClient();
@@ -185,53 +598,46 @@ public class RoomRegistrationHandler {
             Response r = null;
 
             r = target.request(MediaType.APPLICATION_JSON).get(); // .accept(MediaType.APPLICATION_JSON).get();
-            int code = r.getStatusInfo().getStatusCode();
-            switch (code) {
-                case 204: {
-                    // room is unknown to map
-                    result.type = RegistrationResult.Type.NOT_REGISTERED;
-                    return result;
-                }
-                case 200: {
-                    // request succeeded.. we need to parse the result into a JsonObject..
-                    // query url always returns an array, so we need to reach in to obtain our
-                    // hit. There should only ever be the one, becase we searched by owner and
-                    // name, and rooms should be unique by owner & name;
-                    String respString = r.readEntity(String.class);
-                    JsonReader reader = Json.createReader(new StringReader(respString));
-                    JsonArray resp = reader.readArray();
-                    JsonObject queryResponse = resp.getJsonObject(0);
-
-                    //get the id for our already-registered room.
-                    String roomId = queryResponse.getString("_id");
-
-                    // now we have our id.. make a new request to get our exit wirings..
-                    queryClient = getClient();
-
-                    WebTarget lookup = queryClient.target(mapLocation);
-                    Invocation.Builder builder = lookup.path("{roomId}").resolveTemplate("roomId", roomId).request(MediaType.APPLICATION_JSON);
-                    Response response = builder.get();
-                    respString = response.readEntity(String.class);
-
-                    //Log.log(Level.FINE, this, "EXISTING_INFO({0})({1}):{2}", mapuserid, room.getRoomId(), respString);
-
-                    reader = Json.createReader(new StringReader(respString));
-                    queryResponse = reader.readObject();
-
-                    //save the full response with exit info into the result var.
-                    result.type = RegistrationResult.Type.REGISTERED;
-                    result.registeredObject = queryResponse;
-                    return result;
-                }
-                case 404:// fall through to 503.
-                case 503: {
-                    Log.log(Level.FINE, this,"Room "+room.getRoomId()+" had rc of "+code+" when queried.");
-                    result.type = RegistrationResult.Type.SERVICE_UNAVAILABLE;
-                    return result;
-                }
-                default: {
-                    throw new Exception("Unknown response code from map " + code);
+            // connections are pooled, so every response must be closed to
+            // give its connection back.
+            try {
+                int code = r.getStatusInfo().getStatusCode();
+                switch (code) {
+                    case 204: {
+                        // room is unknown to map
+                        result.type = RegistrationResult.Type.NOT_REGISTERED;
+                        return result;
+                    }
+                    case 200: {
+                        // request succeeded.. we need to parse the result into a JsonObject..
+                        // query url always returns an array, so we need to reach in to obtain our
+                        // hit. There should only ever be the one, becase we searched by owner and
+                        // name, and rooms should be unique by owner & name;
+                        String respString = r.readEntity(String.class);
+                        // done with this one, before we borrow another connection.
+                        r.close();
+                        JsonReader reader = Json.createReader(new StringReader(respString));
+                        JsonArray resp = reader.readArray();
+                        JsonObject queryResponse = resp.getJsonObject(0);
+
+                        //get the id for our already-registered room.
+                        String roomId = queryResponse.getString("_id");
+
+                        // now we have our id.. make a new request to get our exit wirings..
+                        return fetchRegistration(room, roomId);
+                    }
+                    case 404:// fall through to 503.
+                    case 503: {
+                        Log.log(Level.FINE, this,"Room "+room.getRoomId()+" had rc of "+code+" when queried.");
+                        result.type = RegistrationResult.Type.SERVICE_UNAVAILABLE;
+                        return result;
+                    }
+                    default: {
+                        throw new Exception("Unknown response code from map " + code);
+                    }
                 }
+            } finally {
+                r.close();
             }
         } catch (Exception e){
             Log.log(Level.SEVERE, this, "Exception occurred during room query for "+room.getRoomId(), e);
@@ -300,14 +706,12 @@ public class RoomRegistrationHandler {
     }
 
 
-    enum Mode {REGISTER,UPDATE};
-    private RegistrationResult registerOrUpdateRoom(Mode mode, Room room, String roomId){
-        Client postClient = getClient();
-
-        // create the jax-rs 2.0 client
-        WebTarget root = postClient.target(mapLocation);
-
-        // build the registration/update payload (post data)
+    /**
+     * Build the registration/update payload (post data) for the room, always
+     * the same way, so the same room always gives the same payload.
+     * @return the payload, or null if it couldn't be written.
+     */
+    private String buildRegistrationPayload(Room room){
         JsonObjectBuilder registrationPayload = Json.createObjectBuilder();
         // add the basic room info.
         registrationPayload.add("name", room.getRoomId());
@@ -358,10 +762,23 @@ public class RoomRegistrationHandler {
             jsonWriter.writeObject(objectPayload);
         }catch(Exception e){
             Log.log(Level.SEVERE, this, "Error writing json object : {0}", objectPayload);
+            return null;
+        }
+        return stringWriter.toString();
+    }
+
+    enum Mode {REGISTER,UPDATE};
+    private RegistrationResult registerOrUpdateRoom(Mode mode, Room room, String roomId){
+        Client postClient = getClient();
+
+        // create the jax-rs 2.0 client
+        WebTarget root = postClient.target(mapLocation);
+
+        String jsonPayload = buildRegistrationPayload(room);
+        if(jsonPayload==null){
             // Unable to connect to map w/in reasonable time
-            return MAP_UNAVAILABLE;            
+            return MAP_UNAVAILABLE;
         }
-        String jsonPayload = stringWriter.toString();
 
         Log.log(Level.FINER,this,"Registration Payload: "+jsonPayload);
 
@@ -415,6 +832,10 @@ public class RoomRegistrationHandler {
 
 
     private void updateRoomWithExits(Room room, JsonObject registeredObject) {
+        room.setExits(buildExits(room, registeredObject));
+    }
+
+    private Map<String,ExitDesc> buildExits(Room room, JsonObject registeredObject) {
         JsonObject exits = registeredObject.getJsonObject("exits");
         Map<String,ExitDesc> exitMap = new HashMap<String,ExitDesc>();
         for(Entry<String, JsonValue> e : exits.entrySet()){
@@ -431,7 +852,7 @@ public class RoomRegistrationHandler {
             exitMap.put(e.getKey(), exit);
             Log.log(Level.FINER, this, "Added exit {0} to {1} : {2}", e.getKey(), room.getRoomId(), exit);
         }
-        room.setExits(exitMap);
+        return exitMap;
     }
 
     public String getEndpointForRoom(Room room) {
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.room.websocket;
+
+/**
+ * Writes an outbound frame, routing header and JSON body, straight into a
+ * StringBuilder that is kept and reused by each thread.
+ *
+ * Produces the same text javax.json would for the same object, without
+ * building the object first. Only as much JSON as the room's frames need is
+ * supported, objects and arrays of strings and ints. As with javax.json, a
+ * null string is refused with a NullPointerException, rather than written.
+ */
+final class FrameEncoder {
+
+    // a buffer that grew bigger than this for one huge frame isn't kept.
+    private static final int MAX_RETAINED = 16 * 1024;
+    private static final int MAX_DEPTH = 8;
+
+    private static final ThreadLocal<FrameEncoder> LOCAL = new ThreadLocal<FrameEncoder>() {
+        @Override
+        protected FrameEncoder initialValue() {
+            return new FrameEncoder();
+        }
+    };
+
+    private StringBuilder sb = new StringBuilder(512);
+    // whether the object or array open at each depth has anything in it yet.
+    private final boolean[] hasMembers = new boolean[MAX_DEPTH];
+    private int depth;
+
+    private FrameEncoder() {
+    }
+
+    /**
+     * Start a new frame for this thread, eg. "player,*," ahead of the body.
+     */
+    static FrameEncoder begin(String routing, String target) {
+        FrameEncoder f = LOCAL.get();
+        f.sb.setLength(0);
+        f.depth = 0;
+        f.sb.append(routing).append(',').append(target).append(',');
+        return f;
+    }
+
+    FrameEncoder startObject() {
+        comma();
+        return open('{');
+    }
+
+    FrameEncoder startObject(String name) {
+        name(name);
+        return open('{');
+    }
+
+    FrameEncoder endObject() {
+        depth--;
+        sb.append('}');
+        return this;
+    }
+
+    FrameEncoder startArray(String name) {
+        name(name);
+        return open('[');
+    }
+
+    FrameEncoder endArray() {
+        depth--;
+        sb.append(']');
+        return this;
+    }
+
+    FrameEncoder add(String name, String value) {
+        name(name);
+        string(value);
+        return this;
+    }
+
+    FrameEncoder add(String name, int value) {
+        name(name);
+        sb.append(value);
+        return this;
+    }
+
+    // an element of the array currently open.
+    FrameEncoder add(String value) {
+        comma();
+        string(value);
+        return this;
+    }
+
+    /**
+     * @return the finished frame.
+     */
+    String finish() {
+        String frame = sb.toString();
+        if (sb.capacity() > MAX_RETAINED) {
+            sb = new StringBuilder(512);
+        }
+        return frame;
+    }
+
+    private FrameEncoder open(char c) {
+        sb.append(c);
+        hasMembers[++depth] = false;
+        return this;
+    }
+
+    private void comma() {
+        if (depth > 0) {
+            if (hasMembers[depth]) {
+                sb.append(',');
+            }
+            hasMembers[depth] = true;
+        }
+    }
+
+    private void name(String name) {
+        comma();
+        string(name);
+        sb.append(':');
+    }
+
+    private void string(String s) {
+        quote(sb, s);
+    }
+
+    /**
+     * Append a string as a JSON string, escaped the same way as javax.json.
+     */
+    static void quote(StringBuilder sb, String s) {
+        if (s == null) {
+            throw new NullPointerException("Frame value cannot be null");
+        }
+        sb.append('"');
+        int start = 0;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            sb.append(s, start, i);
+            start = i + 1;
+            switch (c) {
+            case '"':
+            case '\\':
+                sb.append('\\').append(c);
+                break;
+            case '\b':
+                sb.append("\\b");
+                break;
+            case '\f':
+                sb.append("\\f");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                String hex = "000" + Integer.toHexString(c);
+                sb.append("\\u").append(hex, hex.length() - 4, hex.length());
+            }
+        }
+        sb.append(s, start, len);
+        sb.append('"');
+    }
+}
@@ -23,6 +23,111 @@ import javax.json.JsonValue.ValueType;
 
 public class Message {
 
+    /**
+     * The kinds of message the mediator sends to a room.
+     */
+    public enum Type {
+        ROOM_HELLO("roomHello"),
+        ROOM("room"),
+        ROOM_GOODBYE("roomGoodbye"),
+        UNKNOWN(null);
+
+        private final String header;
+
+        Type(String header) {
+            this.header = header;
+        }
+
+        static Type of(CharSequence message, int end) {
+            for (Type t : values()) {
+                if (t.header != null && t.header.length() == end) {
+                    int i = 0;
+                    while (i < end && t.header.charAt(i) == message.charAt(i)) {
+                        i++;
+                    }
+                    if (i == end) {
+                        return t;
+                    }
+                }
+            }
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Where the parts of an inbound frame, type,target,{json}, are, found
+     * by one scan over the start of the frame without copying any of it.
+     *
+     * Reused for every frame on a session, so not thread safe.
+     */
+    public static final class Routing {
+        private Type type = Type.UNKNOWN;
+        private int headerEnd;
+        private int targetStart;
+        private int targetEnd;
+        private int payloadStart;
+
+        /**
+         * Scan the routing segments of the frame, stopping as soon as the
+         * JSON payload is reached.
+         */
+        public Routing parse(CharSequence message) {
+            type = Type.UNKNOWN;
+            headerEnd = targetStart = targetEnd = payloadStart = -1;
+            int len = message.length();
+            for (int i = 0; i < len; i++) {
+                char c = message.charAt(i);
+                if (c == '{') {
+                    break;
+                }
+                if (c == ',') {
+                    if (headerEnd < 0) {
+                        headerEnd = i;
+                        targetStart = i + 1;
+                    } else {
+                        targetEnd = i;
+                        payloadStart = i + 1;
+                        break;
+                    }
+                }
+            }
+            if (payloadStart >= 0) {
+                type = Type.of(message, headerEnd);
+            }
+            return this;
+        }
+
+        /**
+         * @return the type of the frame, UNKNOWN if it didn't have all three
+         *         parts, or the type wasn't one we know.
+         */
+        public Type getType() {
+            return type;
+        }
+
+        public int getTargetStart() {
+            return targetStart;
+        }
+
+        public int getTargetEnd() {
+            return targetEnd;
+        }
+
+        /**
+         * @return the offset of the JSON payload, or -1 if there isn't one.
+         */
+        public int getPayloadStart() {
+            return payloadStart;
+        }
+
+        /**
+         * @return the type segment as sent, for logging frames we don't know.
+         */
+        public String header(CharSequence message) {
+            return message.subSequence(0, headerEnd < 0 ? message.length() : headerEnd).toString();
+        }
+    }
+
     /**
      * Strip off segments by leading comma, stop as soon as a { is reached
      * (beginning of JSON payload)
@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.room.websocket;
+
+import java.math.BigDecimal;
+
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * Pulls a few top level fields out of the JSON payload of an inbound frame,
+ * in one forward scan.
+ *
+ * Nothing is built for the fields that aren't wanted, they are just checked
+ * and skipped over. The whole payload is checked, so anything javax.json
+ * would refuse to read is refused here the same way, rather than giving
+ * back whatever was found before the problem. Values come back as
+ * Message.getValue would give them, strings unescaped, anything else as
+ * its JSON text, and if a field appears more than once the last one wins.
+ */
+final class PayloadFields {
+
+    private final CharSequence json;
+    private final int start;
+    private int pos;
+
+    private PayloadFields(CharSequence json, int start) {
+        this.json = json;
+        this.start = start;
+        this.pos = start;
+    }
+
+    /**
+     * @param json
+     *            the frame holding the payload
+     * @param start
+     *            where the payload object starts in the frame
+     * @param names
+     *            the fields wanted
+     * @return the value of each field, in the same order as the names, null
+     *         for any that are missing.
+     * @throws JsonParsingException
+     *             if the payload isn't a JSON object
+     */
+    static String[] read(CharSequence json, int start, String... names) {
+        return new PayloadFields(json, start).read(names);
+    }
+
+    private String[] read(String[] names) {
+        String[] values = new String[names.length];
+        skipSpace();
+        expect('{');
+        skipSpace();
+        if (peek() != '}') {
+            while (true) {
+                skipSpace();
+                String name = string();
+                skipSpace();
+                expect(':');
+                skipSpace();
+                int field = indexOf(names, name);
+                if (field >= 0) {
+                    values[field] = value();
+                } else {
+                    value(null);
+                }
+                skipSpace();
+                if (peek() == '}') {
+                    break;
+                }
+                expect(',');
+            }
+        }
+        pos++;
+        skipSpace();
+        if (pos < json.length()) {
+            throw malformed();
+        }
+        return values;
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private String value() {
+        if (peek() == '"') {
+            return string();
+        }
+        StringBuilder text = new StringBuilder();
+        value(text);
+        return text.toString();
+    }
+
+    /**
+     * Check the value starting here, and move past it. If text isn't null,
+     * the value is written to it as javax.json would write it.
+     */
+    private void value(StringBuilder text) {
+        // the objects and arrays we are in, innermost last, kept here
+        // rather than on the stack, so deep nesting can't overflow it.
+        StringBuilder open = new StringBuilder();
+        while (true) {
+            char c = peek();
+            if (c == '{' || c == '[') {
+                pos++;
+                append(text, c);
+                skipSpace();
+                char close = c == '{' ? '}' : ']';
+                if (peek() == close) {
+                    pos++;
+                    append(text, close);
+                } else {
+                    open.append(c);
+                    if (c == '{') {
+                        member(text);
+                    }
+                    continue;
+                }
+            } else if (c == '"') {
+                String s = string();
+                if (text != null) {
+                    FrameEncoder.quote(text, s);
+                }
+            } else if (c == '-' || (c >= '0' && c <= '9')) {
+                number(text);
+            } else {
+                literal(text);
+            }
+            // that value is done, close whatever it ends, up to the next one.
+            while (true) {
+                if (open.length() == 0) {
+                    return;
+                }
+                skipSpace();
+                char container = open.charAt(open.length() - 1);
+                c = next();
+                if (c == ',') {
+                    append(text, c);
+                    skipSpace();
+                    if (container == '{') {
+                        member(text);
+                    }
+                    break;
+                }
+                if (c != (container == '{' ? '}' : ']')) {
+                    pos--;
+                    throw malformed();
+                }
+                append(text, c);
+                open.setLength(open.length() - 1);
+            }
+        }
+    }
+
+    // the name of an object member, and the colon after it.
+    private void member(StringBuilder text) {
+        skipSpace();
+        String name = string();
+        if (text != null) {
+            FrameEncoder.quote(text, name);
+        }
+        skipSpace();
+        expect(':');
+        append(text, ':');
+        skipSpace();
+    }
+
+    private void number(StringBuilder text) {
+        int from = pos;
+        if (peek() == '-') {
+            pos++;
+        }
+        if (peek() == '0') {
+            pos++;
+        } else {
+            digits();
+        }
+        if (pos < json.length() && json.charAt(pos) == '.') {
+            pos++;
+            digits();
+        }
+        if (pos < json.length() && (json.charAt(pos) == 'e' || json.charAt(pos) == 'E')) {
+            pos++;
+            if (peek() == '+' || peek() == '-') {
+                pos++;
+            }
+            digits();
+        }
+        if (text != null) {
+            text.append(new BigDecimal(json.subSequence(from, pos).toString()).toString());
+        }
+    }
+
+    // one or more.
+    private void digits() {
+        char c = peek();
+        if (c < '0' || c > '9') {
+            throw malformed();
+        }
+        do {
+            pos++;
+        } while (pos < json.length() && json.charAt(pos) >= '0' && json.charAt(pos) <= '9');
+    }
+
+    private void literal(StringBuilder text) {
+        for (String literal : new String[] { "true", "false", "null" }) {
+            if (pos + literal.length() <= json.length()
+                    && literal.contentEquals(json.subSequence(pos, pos + literal.length()))) {
+                pos += literal.length();
+                if (text != null) {
+                    text.append(literal);
+                }
+                return;
+            }
+        }
+        throw malformed();
+    }
+
+    private static void append(StringBuilder text, char c) {
+        if (text != null) {
+            text.append(c);
+        }
+    }
+
+    private String string() {
+        expect('"');
+        int from = pos;
+        // the common case, nothing escaped, is a straight copy.
+        char c;
+        while ((c = next()) != '"') {
+            if (c == '\\') {
+                pos = from;
+                return escapedString();
+            }
+            if (c < 0x20) {
+                pos--;
+                throw malformed();
+            }
+        }
+        return json.subSequence(from, pos - 1).toString();
+    }
+
+    private String escapedString() {
+        StringBuilder sb = new StringBuilder();
+        char c;
+        while ((c = next()) != '"') {
+            if (c < 0x20) {
+                pos--;
+                throw malformed();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            c = next();
+            switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                sb.append(c);
+                break;
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'u':
+                int u = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) {
+                        pos--;
+                        throw malformed();
+                    }
+                    u = u << 4 | digit;
+                }
+                sb.append((char) u);
+                break;
+            default:
+                pos--;
+                throw malformed();
+            }
+        }
+        return sb.toString();
+    }
+
+    // only the whitespace JSON allows.
+    private void skipSpace() {
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if (pos >= json.length()) {
+            throw malformed();
+        }
+        return json.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw malformed();
+        }
+        pos++;
+    }
+
+    private JsonParsingException malformed() {
+        // where in the payload, as javax.json would say.
+        final long offset = pos - start;
+        long line = 1;
+        long column = 1;
+        for (int i = start; i < pos && i < json.length(); i++) {
+            if (json.charAt(i) == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+        final long atLine = line;
+        final long atColumn = column;
+        String problem = pos < json.length() ? "Unexpected char " + (int) json.charAt(pos) : "Unexpected end of input";
+        return new JsonParsingException(problem + " at (line no=" + atLine + ", column no=" + atColumn + ", offset="
+                + offset + ")", new JsonLocation() {
+                    @Override
+                    public long getLineNumber() {
+                        return atLine;
+                    }
+
+                    @Override
+                    public long getColumnNumber() {
+                        return atColumn;
+                    }
+
+                    @Override
+                    public long getStreamOffset() {
+                        return offset;
+                    }
+                });
+    }
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.room.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent frames sent by a room, indexed by bookmark, so a session
+ * that reconnects can be sent what it missed instead of starting over.
+ *
+ * Bookmarks are handed out in sequence, so each one simply overwrites the
+ * slot of the bookmark one buffer-length before it, no locking needed. A
+ * frame is recorded as soon as it is rendered, and marked sent once it has
+ * been handed to every session it was for, so a session catching up can
+ * tell what it has already been given live.
+ */
+class ReplayBuffer {
+
+    static class Entry {
+        final int bookmark;
+        final SessionWriter.Kind kind;
+        // the user the frame was for, or * if it was for everyone.
+        final String target;
+        final String text;
+        private volatile boolean sent;
+
+        Entry(int bookmark, SessionWriter.Kind kind, String target, String text) {
+            this.bookmark = bookmark;
+            this.kind = kind;
+            this.target = target;
+            this.text = text;
+        }
+
+        /**
+         * The frame has been handed to every session it was for.
+         */
+        void sent() {
+            sent = true;
+        }
+    }
+
+    // how long to wait for frames that have been given a bookmark, but not
+    // yet recorded or sent, before giving up on them.
+    private static final long DEFAULT_WAIT_MS = 100;
+
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+    private final long waitNanos;
+
+    ReplayBuffer(int size) {
+        this(size, DEFAULT_WAIT_MS);
+    }
+
+    ReplayBuffer(int size, long waitMs) {
+        // round up to a power of two, so the slot is just the low bits.
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.ring = new AtomicReferenceArray<Entry>(capacity);
+        this.mask = capacity - 1;
+        this.waitNanos = TimeUnit.MILLISECONDS.toNanos(waitMs);
+    }
+
+    Entry record(int bookmark, SessionWriter.Kind kind, String target, String text) {
+        Entry e = new Entry(bookmark, kind, target, text);
+        ring.set(bookmark & mask, e);
+        return e;
+    }
+
+    /**
+     * Bookmarks up to and including to must all have been handed out. Any
+     * not yet recorded and sent are waited for, briefly, so that once this
+     * returns, every frame up to to has been given to the sessions it was
+     * sent to live.
+     *
+     * @return the frames for the user (or for everyone) with bookmarks after
+     *         from, up to and including to, in order, or null if some of
+     *         them are no longer held, or didn't turn up in time.
+     */
+    List<Entry> since(int from, int to, String userId) {
+        if (from > to || to - from > ring.length()) {
+            return null;
+        }
+        long deadline = System.nanoTime() + waitNanos;
+        List<Entry> missed = new ArrayList<Entry>();
+        for (int b = from + 1; b <= to; b++) {
+            Entry e;
+            while ((e = ring.get(b & mask)) == null || e.bookmark < b || !e.sent) {
+                if ((e != null && e.bookmark > b) || System.nanoTime() - deadline > 0) {
+                    return null;
+                }
+                // another thread is still rendering or sending it.
+                Thread.yield();
+            }
+            if (e.bookmark != b) {
+                // overwritten by something newer.
+                return null;
+            }
+            if ("*".equals(e.target) || e.target.equals(userId)) {
+                missed.add(e);
+            }
+        }
+        return missed;
+    }
+}
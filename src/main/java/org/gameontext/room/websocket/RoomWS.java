@@ -16,14 +16,12 @@
 package org.gameontext.room.websocket;
 
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.websocket.CloseReason;
 import javax.websocket.Endpoint;
@@ -56,6 +54,8 @@ public class RoomWS extends Endpoint {
     private static class SessionMessageHandler implements MessageHandler.Whole<String> {
         private final Session session;
         private final RoomWS owner;
+        // frames on a session arrive one at a time, so one will do.
+        private final Message.Routing routing = new Message.Routing();
 
         public SessionMessageHandler(Session session, RoomWS owner) {
             this.session = session;
@@ -65,7 +65,7 @@ public class RoomWS extends Endpoint {
         @Override
         public void onMessage(String message) {
             try {
-                owner.receiveMessage(message, session);
+                owner.receiveMessage(message, session, routing);
             } catch (IOException io) {
                 Log.log(Level.SEVERE, this, "IO Exception sending message to session", io);
             }
@@ -95,7 +95,9 @@ public class RoomWS extends Endpoint {
         //session debug.
         debugDumpSessionInfo();
 
-        // (lifecycle) Called when the connection is opened
+        // (lifecycle) Called when the connection is opened, the session is
+        // sent the room's frames from now on, held until a player says hello
+        // on it.
         srrp.addSession(session);
 
         //add handler if needed, or use existing one.
@@ -175,37 +177,41 @@ public class RoomWS extends Endpoint {
      @Metered(name = "receiveMessage_meter",
          tags = "label=websocket")
     public void receiveMessage(String message, Session session) throws IOException {
+        receiveMessage(message, session, new Message.Routing());
+    }
+
+    private void receiveMessage(String message, Session session, Message.Routing routing) throws IOException {
         Log.log(Level.FINE, this, "ROOMX: [{0}:{1}] sess[{2}:{3}] : {4}", this.hashCode(),this.room.getRoomId(),session.hashCode(),session.getId(),message);
-        String[] contents = Message.splitRouting(message);
-        if (contents[0].equals("roomHello")) {
-            addNewPlayer(session, contents[2]);
+        switch (routing.parse(message).getType()) {
+        case ROOM_HELLO:
+            addNewPlayer(session, message, routing.getPayloadStart());
             return;
-        }
-        if (contents[0].equals("room")) {
-            processCommand(contents[2]);
+        case ROOM:
+            processCommand(message, routing.getPayloadStart());
             return;
-        }
-        if (contents[0].equals("roomGoodbye")) {
-            removePlayer(session, contents[2]);
+        case ROOM_GOODBYE:
+            removePlayer(session, message, routing.getPayloadStart());
             return;
+        default:
+            Log.log(Level.SEVERE, this, "Unknown Message Type {0} for room {1} message {2}", routing.header(message), room.getRoomId(),message);
         }
-        Log.log(Level.SEVERE, this, "Unknown Message Type {0} for room {1} message {2}", contents[0], room.getRoomId(),message);
     }
 
     // process a command
-    private void processCommand(String json) throws IOException {
+    private void processCommand(String json, int start) throws IOException {
         Log.log(Level.FINE,this, "Command received from the user, " + this);
-        JsonObject msg = Json.createReader(new StringReader(json)).readObject();
+        // only the fields we need are read from the payload.
+        String[] fields = PayloadFields.read(json, start, "content", Constants.USERID, Constants.USERNAME);
 
-        String content = Message.getValue(msg.get("content"));
-        String userid = Message.getValue(msg.get(Constants.USERID));
+        String content = fields[0];
+        String userid = fields[1];
 
         if (content.startsWith("/")) {
             room.command(userid, content.substring(1));
         } else {
-            String username = Message.getValue(msg.get(Constants.USERNAME));
+            String username = fields[2];
             if(username==null){
-                Log.log(Level.WARNING, this, "Recieved chat msg with missing username : {0}", json);
+                Log.log(Level.WARNING, this, "Recieved chat msg with missing username : {0}", json.substring(start));
                 username = userid;
             }
             // everything else is chat.
@@ -214,23 +220,28 @@ public class RoomWS extends Endpoint {
     }
 
     // add a new player to the room
-    private void addNewPlayer(Session session, String json) throws IOException {
+    private void addNewPlayer(Session session, String json, int start) throws IOException {
 
-        JsonObject msg = Json.createReader(new StringReader(json)).readObject();
-        String username = Message.getValue(msg.get(Constants.USERNAME));
-        String userid = Message.getValue(msg.get(Constants.USERID));
+        String[] fields = PayloadFields.read(json, start, Constants.USERNAME, Constants.USERID, "bookmark");
+        String username = fields[0];
+        String userid = fields[1];
 
         Log.log(Level.INFO, this, "*** Adding player {0} from room {1} via session {2}", userid,room.getRoomId(),session.getId());
 
+        // a mediator coming back after a blip tells us the last bookmark it
+        // saw, if we still have everything since then, it only needs that.
+        boolean resumed = srrp.join(session, userid, fields[2]);
         room.addUserToRoom(userid, username);
-        room.command(userid, "look");
+        if (!resumed) {
+            room.command(userid, "look");
+        }
     }
 
-    private void removePlayer(Session session, String json) throws IOException {
-        JsonObject msg = Json.createReader(new StringReader(json)).readObject();
-        String userid = Message.getValue(msg.get(Constants.USERID));
+    private void removePlayer(Session session, String json, int start) throws IOException {
+        String userid = PayloadFields.read(json, start, Constants.USERID)[0];
         Log.log(Level.INFO, this, "*** Removing player {0} from room {1} via session {2}", userid,room.getRoomId(),session.getId());
         room.removeUserFromRoom(userid);
+        srrp.removeUserSession(userid, session);
     }
 
     @Override
@@ -0,0 +1,439 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package org.gameontext.room.websocket;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.enterprise.inject.spi.CDI;
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.gameontext.room.Log;
+
+/**
+ * Sends frames to a single session, one at a time, from a bounded queue.
+ *
+ * A session that can't keep up only ever holds a fixed number of frames,
+ * what happens when it is full is decided by the OverflowPolicy, and the
+ * other sessions in the room never wait on it.
+ *
+ * With batching on, frames are held for a short window (or until the room
+ * says it has finished what it was doing), then written in one burst, each
+ * handed to the container as soon as it is done with the one before. Each
+ * frame is still its own websocket message, as the protocol needs. We
+ * don't turn on the container's own batching, as some containers then hold
+ * our completion callbacks until the batch is flushed, and we only ever
+ * have one frame with the container at a time.
+ *
+ * A writer can also hold everything it is given until it is released, so
+ * frames a session missed can be put in among them first.
+ */
+public class SessionWriter implements SendHandler {
+
+    /**
+     * What to do with a frame for a session whose queue is full.
+     *
+     * Chat is the first thing to go, then events, while location and exit
+     * frames are never dropped. The least important of the waiting frames
+     * and the new one is dropped, the oldest waiting one if it is a tie, so
+     * only when the queue is all location and exit frames and another one
+     * arrives is the session closed.
+     */
+    public enum OverflowPolicy {
+        // drop the oldest chat message waiting to be sent, or the oldest
+        // event if there is no chat, as above
+        DROP_OLDEST_CHAT,
+        // drop a location update for the same player that the new one
+        // replaces, or failing that, as DROP_OLDEST_CHAT does
+        COALESCE,
+        // close the session, the client can reconnect and catch up
+        DISCONNECT
+    }
+
+    public enum Kind {
+        EVENT, CHAT, LOCATION, EXIT
+    }
+
+    private static class Frame {
+        // the room's bookmark for the frame, 0 if it has none.
+        final int bookmark;
+        final Kind kind;
+        final String target;
+        final String text;
+        final long queuedAt;
+
+        Frame(int bookmark, Kind kind, String target, String text) {
+            this.bookmark = bookmark;
+            this.kind = kind;
+            this.target = target;
+            this.text = text;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
+    private final Session session;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<Frame> queue = new ArrayDeque<Frame>();
+    // the frame the container is sending for us, if any.
+    private Frame inFlight;
+    private boolean closed;
+    // queue frames, but don't send any until released.
+    private boolean holding;
+
+    // how long to hold frames before sending them as a batch, 0 for no
+    // batching, and whether a flush is already scheduled.
+    private final long batchWindow;
+    private final ScheduledExecutorService scheduler;
+    private boolean flushScheduled;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public SessionWriter(Session session, int capacity, OverflowPolicy policy) {
+        this(session, capacity, policy, 0, null);
+    }
+
+    public SessionWriter(Session session, int capacity, OverflowPolicy policy, long batchWindow,
+            ScheduledExecutorService scheduler) {
+        this.session = session;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.batchWindow = scheduler != null ? batchWindow : 0;
+        this.scheduler = scheduler;
+    }
+
+    public void send(Kind kind, String target, String text) {
+        send(0, kind, target, text);
+    }
+
+    public void send(int bookmark, Kind kind, String target, String text) {
+        Frame frame = new Frame(bookmark, kind, target, text);
+        Frame next = null;
+        boolean overflow = false;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            Frame dropped = queue.size() >= capacity ? makeRoom(frame) : null;
+            if (dropped == frame) {
+                // the new frame was the least important one.
+                return;
+            }
+            if (queue.size() >= capacity) {
+                overflow = true;
+            } else {
+                queue.add(frame);
+                Metrics.queued.incrementAndGet();
+                if (holding) {
+                    // it waits for release.
+                } else if (batchWindow > 0) {
+                    // hold it for the batch, unless a burst is being written
+                    // already, in which case it just joins the end of it.
+                    if (inFlight == null && !flushScheduled) {
+                        flushScheduled = true;
+                        scheduler.schedule(flushTask, batchWindow, TimeUnit.MILLISECONDS);
+                    }
+                } else if (inFlight == null) {
+                    next = inFlight = queue.poll();
+                    Metrics.queued.decrementAndGet();
+                }
+            }
+        }
+        if (overflow) {
+            disconnect();
+        } else if (next != null) {
+            write(next);
+        }
+    }
+
+    /**
+     * Start writing any frames held for a batch now, rather than waiting for
+     * the window to close. The rest follow as each one before is done.
+     */
+    public void flush() {
+        Frame next = null;
+        synchronized (this) {
+            flushScheduled = false;
+            if (!closed && !holding && inFlight == null) {
+                next = inFlight = queue.poll();
+                if (next != null) {
+                    Metrics.queued.decrementAndGet();
+                }
+            }
+        }
+        if (next != null) {
+            write(next);
+        }
+    }
+
+    /**
+     * Queue everything sent from now on, without sending any of it, until
+     * {@link #release(int, List)}.
+     */
+    public synchronized void hold() {
+        holding = true;
+    }
+
+    /**
+     * Stop holding frames, and start sending them. If missed isn't null,
+     * held frames with bookmarks up to and including after are dropped as
+     * already seen, and the missed frames not already held are put in among
+     * the rest, in bookmark order.
+     *
+     * @return true if the missed frames were put in, false if we weren't
+     *         holding, or there were too many to queue, in which case only
+     *         the held frames are sent.
+     */
+    public boolean release(int after, List<ReplayBuffer.Entry> missed) {
+        Frame next = null;
+        boolean merged = false;
+        synchronized (this) {
+            if (closed || !holding) {
+                return false;
+            }
+            holding = false;
+            if (missed != null) {
+                List<Frame> frames = new ArrayList<Frame>();
+                Set<Integer> held = new HashSet<Integer>();
+                for (Frame f : queue) {
+                    if (f.bookmark == 0 || f.bookmark > after) {
+                        frames.add(f);
+                        held.add(f.bookmark);
+                    }
+                }
+                for (ReplayBuffer.Entry e : missed) {
+                    if (!held.contains(e.bookmark)) {
+                        frames.add(new Frame(e.bookmark, e.kind, e.target, e.text));
+                    }
+                }
+                if (frames.size() <= capacity) {
+                    Collections.sort(frames, BY_BOOKMARK);
+                    Metrics.queued.addAndGet(frames.size() - queue.size());
+                    queue.clear();
+                    queue.addAll(frames);
+                    merged = true;
+                }
+            }
+            if (inFlight == null) {
+                next = inFlight = queue.poll();
+                if (next != null) {
+                    Metrics.queued.decrementAndGet();
+                }
+            }
+        }
+        if (next != null) {
+            write(next);
+        }
+        return merged;
+    }
+
+    private static final Comparator<Frame> BY_BOOKMARK = new Comparator<Frame>() {
+        @Override
+        public int compare(Frame a, Frame b) {
+            return Integer.compare(a.bookmark, b.bookmark);
+        }
+    };
+
+    /**
+     * Drop everything waiting, and stop accepting more.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            Metrics.queued.addAndGet(-queue.size());
+            queue.clear();
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+        Frame done;
+        Frame next;
+        synchronized (this) {
+            done = inFlight;
+            next = inFlight = closed ? null : queue.poll();
+            if (next != null) {
+                Metrics.queued.decrementAndGet();
+            }
+        }
+        if (done != null) {
+            Metrics.latency((System.nanoTime() - done.queuedAt) / 1000000);
+        }
+        if (!result.isOK()) {
+            Log.log(Level.WARNING, this, "Failed to send to session " + session.getId(), result.getException());
+        }
+        if (next != null) {
+            write(next);
+        }
+    }
+
+    private void write(Frame frame) {
+        Log.log(Level.FINE, this, "ROOM({0}): sending to session {1} messsage {2}", frame.kind, session.getId(),
+                frame.text);
+        if (!session.isOpen()) {
+            synchronized (this) {
+                inFlight = null;
+            }
+            close();
+            return;
+        }
+        try {
+            session.getAsyncRemote().sendText(frame.text, this);
+        } catch (RuntimeException e) {
+            // the container won't be calling us back for this one, the
+            // session is no good to us now, so stop and finish up here.
+            close();
+            onResult(new SendResult(e));
+        }
+    }
+
+    // the kinds of frame we may drop when the queue is full, least
+    // important first.
+    private static final Kind[] DROPPABLE = { Kind.CHAT, Kind.EVENT };
+
+    /**
+     * Drop a frame to make room for the incoming one, which may be the
+     * incoming frame itself. Caller must hold the lock.
+     *
+     * @return the frame dropped, or null if none could be.
+     */
+    private Frame makeRoom(Frame incoming) {
+        if (policy == OverflowPolicy.DISCONNECT) {
+            return null;
+        }
+        Frame dropped;
+        if (policy == OverflowPolicy.COALESCE && incoming.kind == Kind.LOCATION
+                && (dropped = dropFirst(Kind.LOCATION, incoming.target)) != null) {
+            return dropped;
+        }
+        for (Kind kind : DROPPABLE) {
+            if ((dropped = dropFirst(kind, null)) != null) {
+                return dropped;
+            }
+            if (incoming.kind == kind) {
+                Metrics.dropped();
+                return incoming;
+            }
+        }
+        return null;
+    }
+
+    // caller must hold the lock.
+    private Frame dropFirst(Kind kind, String target) {
+        Iterator<Frame> i = queue.iterator();
+        while (i.hasNext()) {
+            Frame f = i.next();
+            if (f.kind == kind && (target == null || target.equals(f.target))) {
+                i.remove();
+                Metrics.queued.decrementAndGet();
+                Metrics.dropped();
+                return f;
+            }
+        }
+        return null;
+    }
+
+    private void disconnect() {
+        Log.log(Level.WARNING, this, "Outbound queue for session {0} is full, closing it", session.getId());
+        close();
+        Metrics.disconnected();
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Outbound queue full"));
+        } catch (IOException e) {
+            Log.log(Level.FINE, this, "Error closing session " + session.getId(), e);
+        }
+    }
+
+    /**
+     * Outbound queue metrics, shared by every session. Registered with the
+     * application registry when there is one, so the console test rig still
+     * works without a container.
+     */
+    private static class Metrics {
+        static final AtomicLong queued = new AtomicLong();
+        private static final Histogram latency;
+        private static final Counter dropped;
+        private static final Counter disconnected;
+
+        static {
+            Histogram h = null;
+            Counter d = null;
+            Counter c = null;
+            try {
+                MetricRegistry registry = CDI.current().select(MetricRegistry.class).get();
+                registry.register("websocket_outbound_queued", new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return queued.get();
+                    }
+                });
+                h = registry.histogram("websocket_outbound_latency_ms");
+                d = registry.counter("websocket_outbound_dropped");
+                c = registry.counter("websocket_outbound_disconnects");
+            } catch (RuntimeException e) {
+                Log.log(Level.FINE, SessionWriter.class, "No metric registry available for outbound queue metrics", e);
+            }
+            latency = h;
+            dropped = d;
+            disconnected = c;
+        }
+
+        static void latency(long ms) {
+            if (latency != null) {
+                latency.update(ms);
+            }
+        }
+
+        static void dropped() {
+            if (dropped != null) {
+                dropped.inc();
+            }
+        }
+
+        static void disconnected() {
+            if (disconnected != null) {
+                disconnected.inc();
+            }
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package org.gameontext.room.websocket;
 
-import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -8,14 +7,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
-import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
 import javax.websocket.Endpoint;
 import javax.websocket.HandshakeResponse;
 import javax.websocket.Session;
@@ -23,6 +19,7 @@ import javax.websocket.server.HandshakeRequest;
 import javax.websocket.server.ServerApplicationConfig;
 import javax.websocket.server.ServerEndpointConfig;
 
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.gameontext.room.Log;
 import org.gameontext.room.engine.Engine;
 import org.gameontext.room.engine.Room;
@@ -37,21 +34,70 @@ public class WebSocketManager implements ServerApplicationConfig {
 
     private Engine e = Engine.getEngine();
 
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+    private static final int DEFAULT_REPLAY_SIZE = 256;
+
     public static class SessionRoomResponseProcessor
             implements RoomResponseProcessor {
+        // the room we send for, so we can tell who is in it.
+        private final Room room;
         private Collection<Session> activeSessions = new CopyOnWriteArraySet<Session>();
+        // each session gets its own bounded queue of frames waiting to go out.
+        private Map<Session, SessionWriter> writers = new ConcurrentHashMap<Session, SessionWriter>();
+        private final int queueSize;
+        private final SessionWriter.OverflowPolicy overflowPolicy;
+        private final long batchWindow;
+        // recent frames, so reconnecting sessions can catch up.
+        private final ReplayBuffer replay;
         private AtomicInteger counter = new AtomicInteger(0);
+        // which sessions each player said hello on, so events meant for one
+        // player only go to the sessions that carry that player.
+        private Map<String, Set<Session>> sessionsByUser = new ConcurrentHashMap<String, Set<Session>>();
+
+        // frames are the same for every session, so each is rendered once,
+        // straight to text, and the same String handed to each session.
+        //
+        // each frame takes the next bookmark, is recorded for replay, then
+        // sent, with no lock held: only the bookmark and the replay slot are
+        // ordered, so frames from commands running at the same time may
+        // reach a session in either order, as they always could.
+
+        // send a frame to the sessions it is for, then mark it sent, so a
+        // session catching up knows whether it has had it live.
+        private void publish(ReplayBuffer.Entry e) {
+            try {
+                if ("*".equals(e.target)) {
+                    send(activeSessions, e);
+                } else {
+                    sendTo(e);
+                }
+            } finally {
+                e.sent();
+            }
+        }
 
-        private void generateEvent(Session session, JsonObject content, String userID, boolean selfOnly, int bookmark)
-                throws IOException {
-            JsonObjectBuilder response = Json.createObjectBuilder();
-            response.add("type", "event");
-            response.add("content", content);
-            response.add("bookmark", bookmark);
+        private void sendTo(ReplayBuffer.Entry e) {
+            Set<Session> sessions = sessionsByUser.get(e.target);
+            if (sessions != null && !sessions.isEmpty()) {
+                send(sessions, e);
+            } else if (room != null && room.getUserById(e.target) != null) {
+                // the player is here, but every session they said hello on
+                // has gone, so there is no-one to tell.
+                Log.log(Level.FINEST, this, "Dropping frame for {0}, no session open", e.target);
+            } else {
+                // we never saw a hello for this player, so we don't know where
+                // they are, better to send to everyone than to no-one.
+                send(activeSessions, e);
+            }
+        }
 
-            String msg = "player," + (selfOnly ? userID : "*") + "," + response.build().toString();
-            Log.log(Level.FINE, this, "ROOM(PE): sending to session {0} messsage {1}", session.getId(), msg);
-            if(session.isOpen())session.getAsyncRemote().sendText(msg);
+        private void send(Collection<Session> sessions, ReplayBuffer.Entry e) {
+            for (Session session : sessions) {
+                SessionWriter writer = writers.get(session);
+                if (writer != null) {
+                    writer.send(e.bookmark, e.kind, e.target, e.text);
+                }
+            }
         }
 
         @Override
@@ -59,127 +105,203 @@ public class WebSocketManager implements ServerApplicationConfig {
             // System.out.println("Player message :: from("+senderId+")
             // onlyForSelf("+String.valueOf(selfMessage)+")
             // others("+String.valueOf(othersMessage)+")");
-            JsonObjectBuilder content = Json.createObjectBuilder();
-            boolean selfOnly = true;
-            if (othersMessage != null && othersMessage.length() > 0) {
-                content.add("*", othersMessage);
-                selfOnly = false;
+            boolean selfOnly = othersMessage == null || othersMessage.length() == 0;
+            int bookmark = counter.incrementAndGet();
+            FrameEncoder f = FrameEncoder.begin("player", selfOnly ? senderId : "*").startObject()
+                    .add("type", "event").startObject("content");
+            if (!selfOnly) {
+                f.add("*", othersMessage);
             }
             if (selfMessage != null && selfMessage.length() > 0) {
-                content.add(senderId, selfMessage);
-            }
-            JsonObject json = content.build();
-            int count = counter.incrementAndGet();
-            for (Session s : activeSessions) {
-                try {
-                    generateEvent(s, json, senderId, selfOnly, count);
-                } catch (IOException io) {
-                    throw new RuntimeException(io);
-                }
+                f.add(senderId, selfMessage);
             }
-        }
-
-        private void generateRoomEvent(Session session, JsonObject content, int bookmark) {
-            JsonObjectBuilder response = Json.createObjectBuilder();
-            response.add("type", "event");
-            response.add("content", content);
-            response.add("bookmark", bookmark);
-
-            String msg = "player,*," + response.build().toString();
-
-            Log.log(Level.FINE, this, "ROOM(RE): sending to session {0} messsage {1}", session.getId(), msg);
-            if(session.isOpen())session.getAsyncRemote().sendText(msg);
+            String msg = f.endObject().add("bookmark", bookmark).endObject().finish();
+            publish(replay.record(bookmark, SessionWriter.Kind.EVENT, selfOnly ? senderId : "*", msg));
         }
 
         @Override
         public void roomEvent(String s) {
             // System.out.println("Message sent to everyone :: "+s);
-            JsonObjectBuilder content = Json.createObjectBuilder();
-            content.add("*", s);
-            JsonObject json = content.build();
-            int count = counter.incrementAndGet();
-            for (Session session : activeSessions) {
-                generateRoomEvent(session, json, count);
-            }
+            int bookmark = counter.incrementAndGet();
+            String msg = FrameEncoder.begin("player", "*").startObject()
+                    .add("type", "event").startObject("content").add("*", s).endObject()
+                    .add("bookmark", bookmark).endObject().finish();
+            publish(replay.record(bookmark, SessionWriter.Kind.EVENT, "*", msg));
         }
 
         public void chatEvent(String username, String msg) {
-            JsonObjectBuilder content = Json.createObjectBuilder();
-            content.add("type", "chat");
-            content.add("username", username);
-            content.add("content", msg);
-            content.add("bookmark", counter.incrementAndGet());
-            JsonObject json = content.build();
-            for (Session session : activeSessions) {
-                String cmsg = "player,*," + json.toString();
-                Log.log(Level.FINE, this, "ROOM(CE): sending to session {0} messsage {1}", session.getId(), cmsg);
-                if(session.isOpen())session.getAsyncRemote().sendText(cmsg);
-            }
+            int bookmark = counter.incrementAndGet();
+            String cmsg = FrameEncoder.begin("player", "*").startObject()
+                    .add("type", "chat")
+                    .add("username", username)
+                    .add("content", msg)
+                    .add("bookmark", bookmark).endObject().finish();
+            publish(replay.record(bookmark, SessionWriter.Kind.CHAT, "*", cmsg));
         }
 
         @Override
         public void locationEvent(String senderId, String roomId, String roomName, String roomDescription, Map<String,String> exits,
                 List<String> objects, List<String> inventory, Map<String,String> commands) {
-            JsonObjectBuilder content = Json.createObjectBuilder();
-            content.add("type", "location");
-            content.add("name", roomId);
-            content.add("fullName", roomName);
-            content.add("description", roomDescription);
-
-            JsonObjectBuilder exitJson = Json.createObjectBuilder();
+            int bookmark = counter.incrementAndGet();
+            FrameEncoder f = FrameEncoder.begin("player", senderId).startObject();
+            f.add("type", "location");
+            f.add("name", roomId);
+            f.add("fullName", roomName);
+            f.add("description", roomDescription);
+
+            f.startObject("exits");
             for (Entry<String, String> e : exits.entrySet()) {
-                exitJson.add(e.getKey().toUpperCase(), e.getValue());
+                f.add(e.getKey().toUpperCase(), e.getValue());
             }
-            content.add("exits", exitJson.build());
+            f.endObject();
 
-            JsonObjectBuilder commandJson = Json.createObjectBuilder();
+            f.startObject("commands");
             for (Entry<String, String> c : commands.entrySet()) {
-                commandJson.add(c.getKey(), c.getValue());
+                f.add(c.getKey(), c.getValue());
             }
-            content.add("commands", commandJson.build());
+            f.endObject();
 
-            JsonArrayBuilder inv = Json.createArrayBuilder();
+            f.startArray("pockets");
             for (String i : inventory) {
-                inv.add(i);
+                f.add(i);
             }
-            content.add("pockets", inv.build());
+            f.endArray();
 
-            JsonArrayBuilder objs = Json.createArrayBuilder();
+            f.startArray("objects");
             for (String o : objects) {
-                objs.add(o);
-            }
-            content.add("objects", objs.build());
-            content.add("bookmark", counter.incrementAndGet());
-
-            JsonObject json = content.build();
-            for (Session session : activeSessions) {
-                String lmsg = "player," + senderId + "," + json.toString();
-                Log.log(Level.FINE, this, "ROOM(LE): sending to session {0} messsage {1}", session.getId(), lmsg);
-                if(session.isOpen())session.getAsyncRemote().sendText(lmsg);
+                f.add(o);
             }
+            f.endArray();
+            f.add("bookmark", bookmark);
+
+            String lmsg = f.endObject().finish();
+            publish(replay.record(bookmark, SessionWriter.Kind.LOCATION, senderId, lmsg));
         }
 
         @Override
         public void exitEvent(String senderId, String message, String exitID, String exitJson) {
-            JsonObjectBuilder content = Json.createObjectBuilder();
-            content.add("type", "exit");
-            content.add("exitId", exitID);
-            content.add("content", message);
-            content.add("bookmark", counter.incrementAndGet());
-            JsonObject json = content.build();
-            for (Session session : activeSessions) {
-                String emsg = "playerLocation," + senderId + "," + json.toString();
-                Log.log(Level.FINE, this, "ROOM(EE): sending to session {0} messsage {1}", session.getId(), emsg);
-                if(session.isOpen())session.getAsyncRemote().sendText(emsg);
+            int bookmark = counter.incrementAndGet();
+            String emsg = FrameEncoder.begin("playerLocation", senderId).startObject()
+                    .add("type", "exit")
+                    .add("exitId", exitID)
+                    .add("content", message)
+                    .add("bookmark", bookmark).endObject().finish();
+            publish(replay.record(bookmark, SessionWriter.Kind.EXIT, senderId, emsg));
+        }
+
+        public SessionRoomResponseProcessor(Room room) {
+            this(room, DEFAULT_QUEUE_SIZE, SessionWriter.OverflowPolicy.DROP_OLDEST_CHAT, 0, DEFAULT_REPLAY_SIZE);
+        }
+
+        public SessionRoomResponseProcessor(Room room, int queueSize, SessionWriter.OverflowPolicy overflowPolicy,
+                long batchWindow, int replaySize) {
+            this.room = room;
+            this.queueSize = queueSize;
+            this.overflowPolicy = overflowPolicy;
+            this.batchWindow = batchWindow;
+            this.replay = new ReplayBuffer(replaySize);
+        }
+
+        /**
+         * A player said hello on a session, so start sending it the frames
+         * it has been holding since it was opened. If this is the first hello
+         * on the session and it gave the last bookmark it saw, the frames it
+         * missed for the player since then are put in among them first.
+         *
+         * @return true if the missed frames were sent, false if the session
+         *         needs bringing up to date some other way, because it gave
+         *         no bookmark, we don't know it, or some of what was missed is
+         *         no longer held.
+         */
+        public boolean join(Session session, String userId, String bookmark) {
+            SessionWriter writer = writers.get(session);
+            if (writer == null) {
+                return false;
+            }
+            addUserSession(userId, session);
+            // every frame given a bookmark after this reaches the session
+            // live, earlier ones may or may not have, so they come from the
+            // replay buffer unless the session is holding them already.
+            int cut = counter.get();
+            int from = -1;
+            List<ReplayBuffer.Entry> missed = null;
+            if (bookmark != null) {
+                try {
+                    from = Integer.parseInt(bookmark.trim());
+                    missed = replay.since(from, cut, userId);
+                } catch (NumberFormatException e) {
+                    Log.log(Level.FINE, this, "Ignoring bookmark {0} from session {1}", bookmark, session.getId());
+                }
+            }
+            boolean resumed = writer.release(from, missed);
+            if (resumed) {
+                Log.log(Level.FINE, this, "Replaying {0} frames after bookmark {1} to session {2}", missed.size(), from,
+                        session.getId());
             }
+            return resumed;
         }
 
+        @Override
+        public void flush() {
+            if (batchWindow > 0) {
+                for (SessionWriter writer : writers.values()) {
+                    writer.flush();
+                }
+            }
+        }
+
+        /**
+         * Start sending the room's frames to a new session. They are held,
+         * not sent, until a player says hello on it, see
+         * {@link #join(Session, String, String)}, so what it missed can go
+         * first. A session that never says hello only ever holds as many as
+         * its queue allows.
+         */
         public void addSession(Session s) {
+            if (!writers.containsKey(s)) {
+                SessionWriter writer = new SessionWriter(s, queueSize, overflowPolicy, batchWindow,
+                        batchWindow > 0 ? Engine.getEngine().getRoomScheduler() : null);
+                writer.hold();
+                writers.put(s, writer);
+            }
             activeSessions.add(s);
         }
 
         public void removeSession(Session s) {
             activeSessions.remove(s);
+            SessionWriter writer = writers.remove(s);
+            if (writer != null) {
+                writer.close();
+            }
+            for (Entry<String, Set<Session>> e : sessionsByUser.entrySet()) {
+                Set<Session> sessions = e.getValue();
+                sessions.remove(s);
+                if (sessions.isEmpty()) {
+                    sessionsByUser.remove(e.getKey(), sessions);
+                }
+            }
+        }
+
+        public void addUserSession(String userId, Session s) {
+            Set<Session> sessions = sessionsByUser.get(userId);
+            if (sessions == null) {
+                sessions = new CopyOnWriteArraySet<Session>();
+                Set<Session> existing = sessionsByUser.putIfAbsent(userId, sessions);
+                if (existing != null) {
+                    sessions = existing;
+                }
+            }
+            sessions.add(s);
+        }
+
+        public void removeUserSession(String userId, Session s) {
+            Set<Session> sessions = sessionsByUser.get(userId);
+            if (sessions != null) {
+                sessions.remove(s);
+                if (sessions.isEmpty()) {
+                    sessionsByUser.remove(userId, sessions);
+                }
+            }
         }
 
         public Collection<Session> getSessions() {
@@ -234,9 +356,35 @@ public class WebSocketManager implements ServerApplicationConfig {
     private Set<ServerEndpointConfig> registerRooms(Collection<Room> rooms) {
     
         Set<ServerEndpointConfig> endpoints = new HashSet<ServerEndpointConfig>();
+        // optionally have each room make all its changes from a single task
+        // at a time, rather than from whichever websocket thread asked.
+        boolean singleWriter = ConfigProvider.getConfig().getOptionalValue("ROOM_SINGLE_WRITER", Boolean.class)
+                .orElse(Boolean.FALSE);
+        // how many frames each session may have waiting to go out, and what
+        // to do when a session falls that far behind.
+        int queueSize = ConfigProvider.getConfig().getOptionalValue("ROOM_OUTBOUND_QUEUE_SIZE", Integer.class)
+                .orElse(DEFAULT_QUEUE_SIZE);
+        SessionWriter.OverflowPolicy overflowPolicy = SessionWriter.OverflowPolicy.valueOf(ConfigProvider.getConfig()
+                .getOptionalValue("ROOM_OUTBOUND_OVERFLOW", String.class)
+                .orElse(SessionWriter.OverflowPolicy.DROP_OLDEST_CHAT.name()).trim().toUpperCase());
+        // optionally hold outbound frames for a few milliseconds, and send
+        // them to each session as a batch.
+        long batchWindow = ConfigProvider.getConfig().getOptionalValue("ROOM_OUTBOUND_BATCH_MS", Long.class)
+                .orElse(0L);
+        // how many recent frames each room keeps for reconnecting sessions.
+        int replaySize = ConfigProvider.getConfig().getOptionalValue("ROOM_REPLAY_BUFFER_SIZE", Integer.class)
+                .orElse(DEFAULT_REPLAY_SIZE);
+        // how many recent command matches each room remembers.
+        int parseCacheSize = ConfigProvider.getConfig().getOptionalValue("ROOM_PARSE_CACHE_SIZE", Integer.class)
+                .orElse(Room.DEFAULT_PARSE_CACHE_SIZE);
         for (Room room : rooms) {
+            if (singleWriter) {
+                room.setMailbox(e.getRoomExecutor());
+            }
+            room.setParseCacheSize(parseCacheSize);
             //now open our websocket.
-            SessionRoomResponseProcessor srrp = new SessionRoomResponseProcessor();
+            SessionRoomResponseProcessor srrp = new SessionRoomResponseProcessor(room, queueSize, overflowPolicy,
+                    batchWindow, replaySize);
             ServerEndpointConfig.Configurator config = new RoomWSConfig(room, srrp, "");
             String path = "/rooms/ws/"+room.getRoomId();
             endpoints.add(ServerEndpointConfig.Builder.create(RoomWS.class, path)
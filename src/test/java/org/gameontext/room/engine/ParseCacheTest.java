@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.gameontext.room.engine.meta.DoorDesc;
+import org.gameontext.room.engine.meta.ItemDesc;
+import org.gameontext.room.engine.meta.RoomDesc;
+import org.gameontext.room.engine.parser.CommandHandler;
+import org.gameontext.room.engine.parser.CommandTemplate;
+import org.gameontext.room.engine.parser.CommandTokens;
+import org.gameontext.room.engine.parser.MatchResult;
+import org.gameontext.room.engine.parser.Node;
+import org.gameontext.room.engine.parser.ParsedCommand;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ParseCacheTest {
+
+    private static class Drink extends CommandHandler {
+        Drink() {
+            register(new CommandTemplateBuilder().build(Node.Type.VERB, "Drink").build(Node.Type.INVENTORY_ITEM)
+                    .build(), new TemplateCallback() {
+                        @Override
+                        public void process(Room room, String execBy, ParsedCommand command) {
+                        }
+                    });
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
+        }
+
+        @Override
+        public String getHelpText() {
+            return "Drinks things";
+        }
+
+        @Override
+        public void processUnknown(Room room, String execBy, String origCmd, String cmdWithoutVerb) {
+        }
+    }
+
+    private final ItemDesc coffee = new ItemDesc("Coffee", "A cup of coffee.", true);
+    private final CommandHandler drink = new Drink();
+    private Room room;
+    private TemplateAutomaton automaton;
+
+    @BeforeEach
+    public void setUp() {
+        room = new Room(new RoomDesc("test", "Test", "A test room.", new ItemDesc[] {}, new DoorDesc[] {}),
+                Collections.<CommandHandler> emptyList());
+        room.addUserToRoom("player", "Player");
+        room.addUserToRoom("other", "Other");
+        room.getUserById("player").inventory.add(coffee);
+        automaton = new TemplateAutomaton(drink);
+    }
+
+    private MatchResult match(ParseCache cache, String command, String execBy) {
+        return cache.match(automaton, drink, new CommandTokens(command), 0, room, execBy);
+    }
+
+    @Test
+    public void sameCommandIsOnlyMatchedOnce() {
+        ParseCache cache = new ParseCache(16);
+        MatchResult first = match(cache, "drink coffee", "player");
+        MatchResult second = match(cache, "DRINK   Coffee", "player");
+        assertTrue(first.isMatch());
+        assertTrue(second.isMatch());
+        assertSame(first.template, second.template);
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void cachedResultIsForTheNewCommand() {
+        ParseCache cache = new ParseCache(16);
+        match(cache, "drink coffee", "player");
+        CommandTokens again = new CommandTokens("Drink Coffee");
+        MatchResult r = cache.match(automaton, drink, again, 0, room, "player");
+        assertSame(again, r.tokens);
+    }
+
+    @Test
+    public void inventoryChangeMissesTheCache() {
+        ParseCache cache = new ParseCache(16);
+        assertTrue(match(cache, "drink coffee", "player").isMatch());
+        room.getUserById("player").inventory.remove(coffee);
+        assertFalse(match(cache, "drink coffee", "player").isMatch());
+        room.getUserById("player").inventory.add(coffee);
+        assertTrue(match(cache, "drink coffee", "player").isMatch());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void roomChangeMissesTheCache() {
+        ParseCache cache = new ParseCache(16);
+        match(cache, "drink coffee", "player");
+        room.getItems().add(new ItemDesc("Tea", "A cup of tea.", true));
+        match(cache, "drink coffee", "player");
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void otherUsersDontShareEntries() {
+        ParseCache cache = new ParseCache(16);
+        assertTrue(match(cache, "drink coffee", "player").isMatch());
+        // coffee isn't in their inventory.
+        assertFalse(match(cache, "drink coffee", "other").isMatch());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        ParseCache cache = new ParseCache(2);
+        match(cache, "drink coffee", "player");
+        match(cache, "drink tea", "player");
+        // touch coffee, so tea is the oldest.
+        match(cache, "drink coffee", "player");
+        match(cache, "drink water", "player");
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+        match(cache, "drink coffee", "player");
+        assertEquals(2, cache.getHits());
+        match(cache, "drink tea", "player");
+        assertEquals(4, cache.getMisses());
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.gameontext.room.engine.meta.ContainerDesc;
+import org.gameontext.room.engine.meta.DoorDesc;
+import org.gameontext.room.engine.meta.ItemDesc;
+import org.gameontext.room.engine.meta.RoomDesc;
+import org.gameontext.room.engine.parser.CommandHandler;
+import org.gameontext.room.engine.parser.CommandTemplate;
+import org.gameontext.room.engine.parser.CommandTokens;
+import org.gameontext.room.engine.parser.ContainerItem;
+import org.gameontext.room.engine.parser.InventoryItem;
+import org.gameontext.room.engine.parser.MatchResult;
+import org.gameontext.room.engine.parser.Node;
+import org.gameontext.room.engine.parser.ParsedCommand;
+import org.gameontext.room.engine.parser.RoomItem;
+import org.junit.jupiter.api.Test;
+
+/**
+ * When more than one template could match a command, the one declared first
+ * wins, whatever kind of thing each expects.
+ */
+public class TemplateAutomatonTest {
+
+    private static final CommandTemplate POKE_ROOM_ITEM = template(Node.Type.ROOM_ITEM);
+    private static final CommandTemplate POKE_INVENTORY_ITEM = template(Node.Type.INVENTORY_ITEM);
+    private static final CommandTemplate POKE_CONTAINER = template(Node.Type.CONTAINER_ITEM);
+    private static final CommandTemplate POKE_USER = template(Node.Type.USER);
+
+    private static CommandTemplate template(Node.Type type) {
+        return new CommandHandler.CommandTemplateBuilder().build(Node.Type.VERB, "Poke").build(type).build();
+    }
+
+    private static class Poke extends CommandHandler {
+        Poke(CommandTemplate... templates) {
+            for (CommandTemplate t : templates) {
+                register(t, new TemplateCallback() {
+                    @Override
+                    public void process(Room room, String execBy, ParsedCommand command) {
+                    }
+                });
+            }
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
+        }
+
+        @Override
+        public String getHelpText() {
+            return "Pokes things";
+        }
+
+        @Override
+        public void processUnknown(Room room, String execBy, String origCmd, String cmdWithoutVerb) {
+        }
+    }
+
+    private final ItemDesc rockInRoom = new ItemDesc("Rock", "A rock on the floor.");
+    private final ItemDesc rockInPocket = new ItemDesc("Rock", "A rock in your pocket.", true);
+    private final ItemDesc bobInRoom = new ItemDesc("Bob", "A statue of Bob.");
+    private final ContainerDesc box = new ContainerDesc("Box", "A box.", false, false, new ItemDesc[] {});
+
+    private Room room() {
+        Room room = new Room(new RoomDesc("test", "Test", "A test room.", new ItemDesc[] { rockInRoom, bobInRoom, box },
+                new DoorDesc[] {}), Collections.<CommandHandler> emptyList());
+        room.addUserToRoom("player", "Player");
+        room.addUserToRoom("bob", "Bob");
+        room.getUserById("player").inventory.add(rockInPocket);
+        return room;
+    }
+
+    private static MatchResult match(Room room, CommandHandler handler, String command) {
+        return new TemplateAutomaton(handler).match(new CommandTokens(command), 0, room, "player");
+    }
+
+    @Test
+    public void roomOrInventoryItemFollowsDeclarationOrder() {
+        Room room = room();
+
+        MatchResult r = match(room, new Poke(POKE_INVENTORY_ITEM, POKE_ROOM_ITEM), "poke rock");
+        assertSame(POKE_INVENTORY_ITEM, r.template);
+        assertSame(rockInPocket, ((InventoryItem) r.nodes.get(1)).item);
+
+        r = match(room, new Poke(POKE_ROOM_ITEM, POKE_INVENTORY_ITEM), "poke rock");
+        assertSame(POKE_ROOM_ITEM, r.template);
+        assertSame(rockInRoom, ((RoomItem) r.nodes.get(1)).item);
+    }
+
+    @Test
+    public void userOrItemFollowsDeclarationOrder() {
+        Room room = room();
+
+        MatchResult r = match(room, new Poke(POKE_USER, POKE_ROOM_ITEM), "poke bob");
+        assertSame(POKE_USER, r.template);
+        assertEquals(Node.Type.USER, r.nodes.get(1).getType());
+
+        r = match(room, new Poke(POKE_ROOM_ITEM, POKE_USER), "poke bob");
+        assertSame(POKE_ROOM_ITEM, r.template);
+        assertSame(bobInRoom, ((RoomItem) r.nodes.get(1)).item);
+    }
+
+    @Test
+    public void containerOrItemFollowsDeclarationOrder() {
+        Room room = room();
+
+        MatchResult r = match(room, new Poke(POKE_CONTAINER, POKE_ROOM_ITEM), "poke box");
+        assertSame(POKE_CONTAINER, r.template);
+        assertSame(box, ((ContainerItem) r.nodes.get(1)).container);
+
+        r = match(room, new Poke(POKE_ROOM_ITEM, POKE_CONTAINER), "poke box");
+        assertSame(POKE_ROOM_ITEM, r.template);
+        assertSame(box, ((RoomItem) r.nodes.get(1)).item);
+    }
+
+    @Test
+    public void laterTemplateMatchesWhenEarlierOneCannot() {
+        Room room = room();
+        room.getUserById("player").inventory.remove(rockInPocket);
+
+        MatchResult r = match(room, new Poke(POKE_INVENTORY_ITEM, POKE_ROOM_ITEM), "poke rock");
+        assertTrue(r.isMatch());
+        assertSame(POKE_ROOM_ITEM, r.template);
+    }
+}
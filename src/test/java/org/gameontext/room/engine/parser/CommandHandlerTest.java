@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine.parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.gameontext.room.engine.Room;
+import org.gameontext.room.engine.meta.DoorDesc;
+import org.gameontext.room.engine.meta.ItemDesc;
+import org.gameontext.room.engine.meta.RoomDesc;
+import org.junit.jupiter.api.Test;
+
+public class CommandHandlerTest {
+
+    private static final CommandTemplate WAVE = new CommandHandler.CommandTemplateBuilder()
+            .build(Node.Type.VERB, "Wave").build();
+    private static final CommandTemplate WAVE_AT = new CommandHandler.CommandTemplateBuilder()
+            .build(Node.Type.VERB, "Wave").build(Node.Type.LINKWORD, "At").build(Node.Type.USER).build();
+
+    // only the first template gets a callback, unless told otherwise.
+    private static class Wave extends CommandHandler {
+        private final Set<CommandTemplate> templates;
+
+        Wave(boolean registerAll) {
+            register(WAVE, new TemplateCallback() {
+                @Override
+                public void process(Room room, String execBy, ParsedCommand command) {
+                    room.playerEvent(execBy, "You wave.", null);
+                }
+            });
+            if (registerAll) {
+                register(WAVE_AT, new TemplateCallback() {
+                    @Override
+                    public void process(Room room, String execBy, ParsedCommand command) {
+                        room.playerEvent(execBy, "You wave at them.", null);
+                    }
+                });
+            }
+            templates = new LinkedHashSet<CommandTemplate>(Arrays.asList(WAVE, WAVE_AT));
+        }
+
+        @Override
+        public Set<CommandTemplate> getTemplates() {
+            return templates;
+        }
+
+        @Override
+        public boolean isHidden() {
+            return false;
+        }
+
+        @Override
+        public String getHelpText() {
+            return "Waves";
+        }
+
+        @Override
+        public void processUnknown(Room room, String execBy, String origCmd, String cmdWithoutVerb) {
+        }
+    }
+
+    private static class Responses extends Room.DebugResponseProcessor {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void playerEvent(String senderId, String selfMessage, String othersMessage) {
+            events.add(senderId + ":" + selfMessage);
+        }
+
+        @Override
+        public void locationEvent(String senderId, String roomId, String roomName, String roomDescription,
+                Map<String, String> exits, List<String> objects, List<String> inventory, Map<String, String> commands) {
+        }
+    }
+
+    private static Room room(CommandHandler handler) {
+        return new Room(new RoomDesc("test", "Test", "A test room.", new ItemDesc[] {}, new DoorDesc[] {}),
+                Arrays.<CommandHandler> asList(handler));
+    }
+
+    @Test
+    public void roomWontBuildWithTemplateMissingCallback() {
+        assertThrows(IllegalStateException.class, () -> room(new Wave(false)));
+    }
+
+    @Test
+    public void commandGoesToItsCallback() {
+        Room room = room(new Wave(true));
+        Responses responses = new Responses();
+        room.setRoomResponseProcessor(responses);
+        room.addUserToRoom("player", "Player");
+        room.command("player", "wave");
+        assertEquals(Arrays.asList("player:You wave."), responses.events);
+    }
+
+    @Test
+    public void userNotInRoomIsToldCommandIsUnknown() {
+        Wave wave = new Wave(true);
+        Room room = room(wave);
+        Responses responses = new Responses();
+        room.setRoomResponseProcessor(responses);
+        wave.processCommand(room, "stranger", new ParsedCommand("wave", new CommandTokens("wave"), WAVE, nodes()));
+        assertEquals(Arrays.asList("stranger:" + Room.UNKNOWN_COMMAND), responses.events);
+    }
+
+    @Test
+    public void missingCallbackAtRuntimeIsToldCommandIsUnknown() {
+        // a handler the room never checked, eg. one compiled on demand.
+        Wave wave = new Wave(false);
+        Room room = room(new Wave(true));
+        Responses responses = new Responses();
+        room.setRoomResponseProcessor(responses);
+        room.addUserToRoom("player", "Player");
+        wave.processCommand(room, "player",
+                new ParsedCommand("wave at player", new CommandTokens("wave at player"), WAVE_AT, nodes()));
+        assertEquals(Arrays.asList("player:" + Room.UNKNOWN_COMMAND), responses.events);
+    }
+
+    private static List<Node> nodes() {
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(new Verb("WAVE"));
+        return nodes;
+    }
+}
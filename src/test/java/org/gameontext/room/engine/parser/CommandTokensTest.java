@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.engine.parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class CommandTokensTest {
+
+    @Test
+    public void splitsOnAnyWhitespace() {
+        CommandTokens cmd = new CommandTokens("  use\tmug   with \n coffee machine ");
+        assertEquals(5, cmd.size());
+        assertEquals("USE", cmd.word(0));
+        assertEquals("MACHINE", cmd.word(4));
+    }
+
+    @Test
+    public void emptyCommandHasNoWords() {
+        CommandTokens cmd = new CommandTokens("   ");
+        assertEquals(0, cmd.size());
+        assertNull(cmd.word(0));
+        assertEquals("", cmd.text(0));
+    }
+
+    @Test
+    public void wordsAreUpperCasedOnceAndKept() {
+        CommandTokens cmd = new CommandTokens("Take the Mug");
+        String first = cmd.word(2);
+        assertEquals("MUG", first);
+        assertSame(first, cmd.word(2));
+    }
+
+    @Test
+    public void wordOutOfRangeIsNull() {
+        CommandTokens cmd = new CommandTokens("look");
+        assertNull(cmd.word(-1));
+        assertNull(cmd.word(1));
+    }
+
+    @Test
+    public void wordEqualsIgnoresCase() {
+        CommandTokens cmd = new CommandTokens("go North");
+        assertTrue(cmd.wordEquals(1, "NORTH"));
+        assertTrue(cmd.wordEquals(1, "north"));
+        assertFalse(cmd.wordEquals(1, "NORT"));
+        assertFalse(cmd.wordEquals(1, "NORTHS"));
+        assertFalse(cmd.wordEquals(2, "NORTH"));
+    }
+
+    @Test
+    public void matchPhraseCountsTheWordsCovered() {
+        CommandTokens cmd = new CommandTokens("use mug with Coffee   Machine");
+        assertEquals(2, cmd.matchPhrase(3, "coffee machine"));
+        assertEquals(2, cmd.matchPhrase(3, " coffee  machine "));
+        assertEquals(1, cmd.matchPhrase(1, "Mug"));
+        assertEquals(0, cmd.matchPhrase(3, "coffee maker"));
+        // runs off the end of the command.
+        assertEquals(0, cmd.matchPhrase(4, "machine room"));
+        assertEquals(0, cmd.matchPhrase(1, "mugs"));
+    }
+
+    @Test
+    public void textKeepsTheOriginalCaseAndSpacing() {
+        CommandTokens cmd = new CommandTokens("say  Hello   World ");
+        assertEquals("Hello   World", cmd.text(1));
+        assertEquals("say  Hello   World ", cmd.getCommand());
+        assertEquals("", cmd.text(3));
+    }
+}
@@ -0,0 +1,151 @@
+package org.gameontext.room.registration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MapHealthTest {
+
+    // a map that is as healthy as the test says, counting each time it is asked.
+    private static class Probe implements Supplier<Boolean> {
+        volatile boolean healthy = true;
+        volatile RuntimeException failure;
+        int calls;
+
+        @Override
+        public Boolean get() {
+            calls++;
+            if (failure != null) {
+                throw failure;
+            }
+            return healthy;
+        }
+    }
+
+    private Probe probe;
+
+    @BeforeEach
+    public void setUp() {
+        probe = new Probe();
+    }
+
+    private static void awaitRetry(MapHealth health) throws InterruptedException {
+        long giveUp = System.currentTimeMillis() + 5000;
+        while (!health.isRetryDue()) {
+            assertTrue(System.currentTimeMillis() < giveUp, "backoff never ended");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testResultReusedUntilStale() throws InterruptedException {
+        MapHealth health = new MapHealth(probe, 50, 3, 1000, 1000);
+        assertTrue(health.isHealthy());
+        assertTrue(health.isHealthy());
+        assertEquals(1, probe.calls);
+
+        probe.healthy = false;
+        assertTrue(health.isHealthy());
+        Thread.sleep(60);
+        assertFalse(health.isHealthy());
+        assertEquals(2, probe.calls);
+        assertEquals(MapHealth.State.CLOSED, health.getState());
+        assertEquals(0, health.getRetryDelay());
+    }
+
+    @Test
+    public void testOpensAfterThreshold() {
+        MapHealth health = new MapHealth(probe, 0, 3, 60000, 60000);
+        probe.healthy = false;
+        assertFalse(health.isHealthy());
+        assertFalse(health.isHealthy());
+        assertEquals(MapHealth.State.CLOSED, health.getState());
+        assertEquals(2, health.getConsecutiveFailures());
+        assertTrue(health.isRetryDue());
+
+        assertFalse(health.isHealthy());
+        assertEquals(MapHealth.State.OPEN, health.getState());
+        assertFalse(health.isRetryDue());
+        // somewhere in the top half of the backoff.
+        long delay = health.getRetryDelay();
+        assertTrue(delay > 29000 && delay <= 60000, "delay " + delay);
+
+        // the map isn't asked again while the circuit is open.
+        probe.healthy = true;
+        assertFalse(health.isHealthy());
+        assertEquals(3, probe.calls);
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        MapHealth health = new MapHealth(probe, 0, 3, 60000, 60000);
+        probe.healthy = false;
+        health.isHealthy();
+        health.isHealthy();
+        probe.healthy = true;
+        assertTrue(health.isHealthy());
+        assertEquals(0, health.getConsecutiveFailures());
+        probe.healthy = false;
+        health.isHealthy();
+        health.isHealthy();
+        assertEquals(MapHealth.State.CLOSED, health.getState());
+    }
+
+    @Test
+    public void testProbeErrorIsFailure() {
+        MapHealth health = new MapHealth(probe, 0, 1, 60000, 60000);
+        probe.failure = new IllegalStateException("no route to map");
+        assertFalse(health.isHealthy());
+        assertEquals(MapHealth.State.OPEN, health.getState());
+    }
+
+    @Test
+    public void testHalfOpenSuccessCloses() throws InterruptedException {
+        MapHealth health = new MapHealth(probe, 0, 1, 20, 20);
+        probe.healthy = false;
+        assertFalse(health.isHealthy());
+        assertEquals(MapHealth.State.OPEN, health.getState());
+
+        awaitRetry(health);
+        // still open until the next probe says which way to go.
+        assertEquals(MapHealth.State.OPEN, health.getState());
+        assertEquals(0, health.getRetryDelay());
+        probe.healthy = true;
+        assertTrue(health.isHealthy());
+        assertEquals(MapHealth.State.CLOSED, health.getState());
+        assertEquals(0, health.getConsecutiveFailures());
+        assertEquals(2, probe.calls);
+    }
+
+    @Test
+    public void testHalfOpenFailureBacksOffLonger() throws InterruptedException {
+        MapHealth health = new MapHealth(probe, 0, 1, 100, 400);
+        probe.healthy = false;
+        health.isHealthy();
+        long first = health.getRetryDelay();
+        assertTrue(first <= 100, "first delay " + first);
+
+        awaitRetry(health);
+        // one failure after the backoff is enough to open again, for longer.
+        assertFalse(health.isHealthy());
+        assertEquals(MapHealth.State.OPEN, health.getState());
+        long second = health.getRetryDelay();
+        assertTrue(second >= 90 && second <= 200, "second delay " + second);
+
+        awaitRetry(health);
+        health.isHealthy();
+        long third = health.getRetryDelay();
+        assertTrue(third >= 190 && third <= 400, "third delay " + third);
+
+        // and no further than the most it is allowed.
+        awaitRetry(health);
+        health.isHealthy();
+        long fourth = health.getRetryDelay();
+        assertTrue(fourth >= 190 && fourth <= 400, "fourth delay " + fourth);
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Each of the room's frames, checked against what javax.json makes of the
+ * same object.
+ */
+public class FrameEncoderTest {
+
+    // quotes, backslashes, the short escapes, other control characters,
+    // and characters outside the BMP.
+    private static final String AWKWARD = "say \"hi\" \\ to\tthe\nroom\r\b\f \u0000\u0001\u001f\u007f \u00e9 \u2028 "
+            + "\uD83D\uDE00 \uD834\uDD1E";
+
+    @Test
+    public void testPlayerEvent() {
+        String frame = FrameEncoder.begin("player", "*").startObject()
+                .add("type", "event").startObject("content")
+                .add("*", AWKWARD)
+                .add("player\u0007", "just you " + AWKWARD)
+                .endObject().add("bookmark", 42).endObject().finish();
+
+        JsonObjectBuilder content = Json.createObjectBuilder();
+        content.add("*", AWKWARD);
+        content.add("player\u0007", "just you " + AWKWARD);
+        JsonObjectBuilder expected = Json.createObjectBuilder();
+        expected.add("type", "event");
+        expected.add("content", content.build());
+        expected.add("bookmark", 42);
+        assertEquals("player,*," + expected.build().toString(), frame);
+    }
+
+    @Test
+    public void testRoomEvent() {
+        String frame = FrameEncoder.begin("player", "*").startObject()
+                .add("type", "event").startObject("content").add("*", AWKWARD).endObject()
+                .add("bookmark", Integer.MAX_VALUE).endObject().finish();
+
+        JsonObjectBuilder expected = Json.createObjectBuilder();
+        expected.add("type", "event");
+        expected.add("content", Json.createObjectBuilder().add("*", AWKWARD).build());
+        expected.add("bookmark", Integer.MAX_VALUE);
+        assertEquals("player,*," + expected.build().toString(), frame);
+    }
+
+    @Test
+    public void testChat() {
+        String frame = FrameEncoder.begin("player", "*").startObject()
+                .add("type", "chat")
+                .add("username", "\uD83D\uDE00 \"Bob\"")
+                .add("content", AWKWARD)
+                .add("bookmark", 1).endObject().finish();
+
+        JsonObjectBuilder expected = Json.createObjectBuilder();
+        expected.add("type", "chat");
+        expected.add("username", "\uD83D\uDE00 \"Bob\"");
+        expected.add("content", AWKWARD);
+        expected.add("bookmark", 1);
+        assertEquals("player,*," + expected.build().toString(), frame);
+    }
+
+    @Test
+    public void testLocation() {
+        FrameEncoder f = FrameEncoder.begin("player", "player1").startObject();
+        f.add("type", "location");
+        f.add("name", "RecRoom");
+        f.add("fullName", "Rec \"Room\"");
+        f.add("description", AWKWARD);
+        f.startObject("exits").add("N", "North\u0002").add("S", "South").endObject();
+        f.startObject("commands").endObject();
+        f.startArray("pockets").add(AWKWARD).endArray();
+        f.startArray("objects").add("mug").add("\uD834\uDD1E").add("").endArray();
+        String frame = f.add("bookmark", 7).endObject().finish();
+
+        JsonObjectBuilder expected = Json.createObjectBuilder();
+        expected.add("type", "location");
+        expected.add("name", "RecRoom");
+        expected.add("fullName", "Rec \"Room\"");
+        expected.add("description", AWKWARD);
+        expected.add("exits", Json.createObjectBuilder().add("N", "North\u0002").add("S", "South").build());
+        expected.add("commands", Json.createObjectBuilder().build());
+        expected.add("pockets", Json.createArrayBuilder().add(AWKWARD).build());
+        JsonArrayBuilder objects = Json.createArrayBuilder();
+        objects.add("mug");
+        objects.add("\uD834\uDD1E");
+        objects.add("");
+        expected.add("objects", objects.build());
+        expected.add("bookmark", 7);
+        assertEquals("player,player1," + expected.build().toString(), frame);
+    }
+
+    @Test
+    public void testExit() {
+        String frame = FrameEncoder.begin("playerLocation", "player1").startObject()
+                .add("type", "exit")
+                .add("exitId", "N")
+                .add("content", AWKWARD)
+                .add("bookmark", 3).endObject().finish();
+
+        JsonObjectBuilder expected = Json.createObjectBuilder();
+        expected.add("type", "exit");
+        expected.add("exitId", "N");
+        expected.add("content", AWKWARD);
+        expected.add("bookmark", 3);
+        assertEquals("playerLocation,player1," + expected.build().toString(), frame);
+    }
+
+    @Test
+    public void testNullRefused() {
+        assertThrows(NullPointerException.class,
+                () -> FrameEncoder.begin("player", "*").startObject().add("content", (String) null));
+        assertThrows(NullPointerException.class,
+                () -> FrameEncoder.begin("player", "*").startObject().startArray("objects").add((String) null));
+        assertThrows(NullPointerException.class,
+                () -> Json.createObjectBuilder().add("content", (String) null));
+
+        // and the next frame on the thread starts clean.
+        assertEquals("player,*,{\"a\":\"b\"}",
+                FrameEncoder.begin("player", "*").startObject().add("a", "b").endObject().finish());
+    }
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import javax.json.stream.JsonParsingException;
+
+import org.junit.jupiter.api.Test;
+
+public class PayloadFieldsTest {
+
+    private static String[] read(String payload, String... names) {
+        return PayloadFields.read(payload, 0, names);
+    }
+
+    private static void assertRejected(final String payload) {
+        assertThrows(JsonParsingException.class, () -> read(payload, "content", "userId"), payload);
+    }
+
+    @Test
+    public void testFields() {
+        String frame = "room,RecRoom,{\"username\":\"Bob\",\"userId\":\"dummy.Bob\",\"content\":\"/look\"}";
+        assertArrayEquals(new String[] { "/look", "dummy.Bob", null },
+                PayloadFields.read(frame, frame.indexOf('{'), "content", "userId", "bookmark"));
+        assertArrayEquals(new String[] { null }, read(" { } ", "content"));
+    }
+
+    @Test
+    public void testEscapes() {
+        String[] fields = read("{\"content\":\"say \\\"hi\\\" \\\\ \\/ \\b\\f\\n\\r\\t \\u00e9\\u00E9 \\uD83D\\uDE00\","
+                + "\"user\\u0049d\":\"\\\"quoted\\\"\"}", "content", "userId");
+        assertEquals("say \"hi\" \\ / \b\f\n\r\t \u00e9\u00e9 \uD83D\uDE00", fields[0]);
+        assertEquals("\"quoted\"", fields[1]);
+    }
+
+    @Test
+    public void testNestedBeforeFields() {
+        String[] fields = read("{\"extra\":{\"a\":[1,{\"b\":\"}\\\"]\"}],\"c\":{}},\"list\":[[],[{}],\"]\"],"
+                + "\"userId\":\"dummy.Bob\",\"content\":\"/go N\"}", "content", "userId");
+        assertArrayEquals(new String[] { "/go N", "dummy.Bob" }, fields);
+    }
+
+    @Test
+    public void testNonStringValues() {
+        // as javax.json would write them out.
+        String[] fields = read("{ \"content\" : { \"a\" : [ 1 , \"x\\u0041\" , true , null ] , \"b\" : { } } ,"
+                + " \"bookmark\" : 42, \"n\": -1.50, \"e\": 1e2, \"f\": false }", "content", "bookmark", "n", "e", "f");
+        assertArrayEquals(new String[] { "{\"a\":[1,\"xA\",true,null],\"b\":{}}", "42", "-1.50", "1E+2", "false" },
+                fields);
+    }
+
+    @Test
+    public void testNullValue() {
+        // Message.getValue gave JsonValue.NULL as its text.
+        assertArrayEquals(new String[] { "null", null }, read("{\"content\":null}", "content", "userId"));
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        // the last one wins, as it does when javax.json builds the object.
+        assertArrayEquals(new String[] { "second", "dummy.Bob" },
+                read("{\"content\":\"first\",\"userId\":\"dummy.Bob\",\"content\":\"second\"}", "content", "userId"));
+        assertArrayEquals(new String[] { "null" }, read("{\"content\":\"first\",\"content\":null}", "content"));
+    }
+
+    @Test
+    public void testTruncated() {
+        String payload = "{\"userId\":\"dummy.Bob\",\"content\":\"/look\",\"extra\":[1,{\"a\":\"b\"}]}";
+        for (int i = 0; i < payload.length(); i++) {
+            assertRejected(payload.substring(0, i));
+        }
+        read(payload, "content");
+    }
+
+    @Test
+    public void testMalformed() {
+        assertRejected("[]");
+        assertRejected("\"content\"");
+        assertRejected("{\"content\":\"/look\",}");
+        assertRejected("{\"content\" \"/look\"}");
+        assertRejected("{\"content\":\"/look\" \"userId\":\"x\"}");
+        assertRejected("{content:\"/look\"}");
+        assertRejected("{'content':'/look'}");
+        assertRejected("{\"content\":tru}");
+        assertRejected("{\"content\":nul}");
+        assertRejected("{\"content\":nullx}");
+        assertRejected("{\"content\":01}");
+        assertRejected("{\"content\":-}");
+        assertRejected("{\"content\":1.}");
+        assertRejected("{\"content\":1e}");
+        assertRejected("{\"content\":+1}");
+        assertRejected("{\"content\":\"\\x\"}");
+        assertRejected("{\"content\":\"\\u12g4\"}");
+        assertRejected("{\"content\":\"a\tb\"}");
+        assertRejected("{\"content\":[1,]}");
+        assertRejected("{\"content\":[1 2]}");
+        assertRejected("{\"content\":{\"a\"}}");
+        assertRejected("{\"content\":[}");
+        assertRejected("{\u00a0\"content\":1}");
+        assertRejected("{\"content\":\"/look\"} trailing");
+        assertRejected("{\"content\":\"/look\"}{}");
+    }
+
+    @Test
+    public void testMalformedAfterFields() {
+        // everything wanted comes first, but the rest is still checked.
+        assertRejected("{\"content\":\"/look\",\"userId\":\"dummy.Bob\",\"extra\":[1,}");
+        assertRejected("{\"content\":\"/look\",\"userId\":\"dummy.Bob\",\"extra\":\"\\q\"}");
+    }
+
+    @Test
+    public void testLocation() {
+        JsonParsingException e = assertThrows(JsonParsingException.class,
+                () -> PayloadFields.read("room,RecRoom,{\n\"content\":x}", 13, "content"));
+        assertEquals(12, e.getLocation().getStreamOffset());
+        assertEquals(2, e.getLocation().getLineNumber());
+        assertEquals(11, e.getLocation().getColumnNumber());
+    }
+
+    @Test
+    public void testDeepNesting() {
+        StringBuilder deep = new StringBuilder("{\"extra\":");
+        for (int i = 0; i < 100000; i++) {
+            deep.append('[');
+        }
+        for (int i = 0; i < 100000; i++) {
+            deep.append(']');
+        }
+        deep.append(",\"content\":\"/look\"}");
+        assertArrayEquals(new String[] { "/look" }, read(deep.toString(), "content"));
+        assertRejected(deep.substring(0, 50000));
+    }
+}
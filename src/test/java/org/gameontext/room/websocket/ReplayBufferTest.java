@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ReplayBufferTest {
+
+    // record a frame, and say it has been sent.
+    private static void add(ReplayBuffer buffer, int bookmark, String target) {
+        buffer.record(bookmark, SessionWriter.Kind.EVENT, target, "frame" + bookmark).sent();
+    }
+
+    private static List<Integer> bookmarks(List<ReplayBuffer.Entry> entries) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (ReplayBuffer.Entry e : entries) {
+            result.add(e.bookmark);
+        }
+        return result;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int b = from; b <= to; b++) {
+            result.add(b);
+        }
+        return result;
+    }
+
+    @Test
+    public void testSinceFiltersByUser() {
+        ReplayBuffer buffer = new ReplayBuffer(8, 10);
+        add(buffer, 1, "*");
+        add(buffer, 2, "bob");
+        add(buffer, 3, "alice");
+        add(buffer, 4, "*");
+        assertTrue(buffer.since(4, 4, "alice").isEmpty());
+        List<ReplayBuffer.Entry> missed = buffer.since(1, 4, "alice");
+        assertEquals(List.of(3, 4), bookmarks(missed));
+        assertEquals("frame3", missed.get(0).text);
+        assertEquals(List.of(1, 2, 4), bookmarks(buffer.since(0, 4, "bob")));
+    }
+
+    @Test
+    public void testSinceWrapsAround() {
+        // rounded up to 8 slots.
+        ReplayBuffer buffer = new ReplayBuffer(5, 10);
+        for (int b = 1; b <= 20; b++) {
+            add(buffer, b, "*");
+        }
+        assertEquals(range(13, 20), bookmarks(buffer.since(12, 20, "bob")));
+        assertEquals(range(18, 20), bookmarks(buffer.since(17, 20, "bob")));
+        // further back than the buffer holds.
+        assertNull(buffer.since(11, 20, "bob"));
+        assertNull(buffer.since(0, 20, "bob"));
+    }
+
+    @Test
+    public void testSinceOverwritten() {
+        ReplayBuffer buffer = new ReplayBuffer(4, 10);
+        for (int b = 1; b <= 6; b++) {
+            add(buffer, b, "*");
+        }
+        // 1 and 2 have been replaced by 5 and 6.
+        assertNull(buffer.since(0, 3, "bob"));
+        assertEquals(range(3, 4), bookmarks(buffer.since(2, 4, "bob")));
+    }
+
+    @Test
+    public void testSinceBadRange() {
+        ReplayBuffer buffer = new ReplayBuffer(4, 10);
+        add(buffer, 1, "*");
+        assertNull(buffer.since(2, 1, "bob"));
+        assertTrue(buffer.since(1, 1, "bob").isEmpty());
+    }
+
+    @Test
+    public void testSinceMissingEntry() {
+        ReplayBuffer buffer = new ReplayBuffer(8, 10);
+        add(buffer, 1, "*");
+        add(buffer, 3, "*");
+        // 2 was handed out, but never recorded.
+        long start = System.nanoTime();
+        assertNull(buffer.since(0, 3, "bob"));
+        assertTrue(System.nanoTime() - start >= 10000000L);
+        // and nothing newer than what was asked for is needed.
+        assertEquals(List.of(1), bookmarks(buffer.since(0, 1, "bob")));
+    }
+
+    @Test
+    public void testSinceWaitsForSend() throws InterruptedException {
+        ReplayBuffer buffer = new ReplayBuffer(8, 5000);
+        add(buffer, 1, "*");
+        final ReplayBuffer.Entry pending = buffer.record(2, SessionWriter.Kind.CHAT, "*", "frame2");
+        Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pending.sent();
+            }
+        };
+        sender.start();
+        List<ReplayBuffer.Entry> missed = buffer.since(0, 2, "bob");
+        sender.join();
+        assertNotNull(missed);
+        assertEquals(List.of(1, 2), bookmarks(missed));
+    }
+
+    @Test
+    public void testSinceGivesUpOnUnsent() {
+        ReplayBuffer buffer = new ReplayBuffer(8, 10);
+        buffer.record(1, SessionWriter.Kind.EVENT, "*", "frame1");
+        assertNull(buffer.since(0, 1, "bob"));
+    }
+}
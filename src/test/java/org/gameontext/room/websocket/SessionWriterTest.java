@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2015 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *******************************************************************************/
+package org.gameontext.room.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.gameontext.room.websocket.SessionWriter.Kind;
+import org.gameontext.room.websocket.SessionWriter.OverflowPolicy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SessionWriterTest {
+
+    /**
+     * Just enough of a session for the writer: frames handed to the async
+     * remote are kept, and only complete when the test says so.
+     */
+    private static class StubSession implements InvocationHandler {
+        final List<String> sent = new ArrayList<String>();
+        final List<SendHandler> pending = new ArrayList<SendHandler>();
+        boolean closed;
+        boolean batching;
+        final Session session = (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Session.class }, this);
+        final RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy
+                .newProxyInstance(getClass().getClassLoader(), new Class<?>[] { RemoteEndpoint.Async.class }, this);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+            case "getId":
+                return "s1";
+            case "isOpen":
+                return !closed;
+            case "getAsyncRemote":
+                return remote;
+            case "close":
+                closed = true;
+                return null;
+            case "setBatchingAllowed":
+                batching = (Boolean) args[0];
+                return null;
+            case "getBatchingAllowed":
+                return batching;
+            case "sendText":
+                if (pending.size() > 0) {
+                    throw new IllegalStateException("A frame is already being sent");
+                }
+                sent.add((String) args[0]);
+                pending.add((SendHandler) args[1]);
+                return null;
+            default:
+                return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+            }
+        }
+
+        // the container finished sending the frame in flight.
+        void complete() {
+            pending.remove(0).onResult(new SendResult());
+        }
+    }
+
+    /**
+     * Holds on to scheduled tasks until the test runs them.
+     */
+    private static class StubScheduler implements InvocationHandler {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final ScheduledExecutorService scheduler = (ScheduledExecutorService) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { ScheduledExecutorService.class }, this);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("schedule")) {
+                tasks.add((Runnable) args[0]);
+            }
+            return null;
+        }
+
+        // the window closed.
+        void run() {
+            tasks.remove(0).run();
+        }
+    }
+
+    private StubSession stub;
+
+    @BeforeEach
+    public void setUp() {
+        stub = new StubSession();
+    }
+
+    // one frame in flight, and a full queue of the given kinds behind it.
+    private SessionWriter full(OverflowPolicy policy, Kind... kinds) {
+        SessionWriter writer = new SessionWriter(stub.session, kinds.length, policy);
+        writer.send(Kind.EVENT, "*", "first");
+        for (int i = 0; i < kinds.length; i++) {
+            writer.send(kinds[i], "player", kinds[i] + "" + i);
+        }
+        assertEquals(kinds.length, writer.getQueueDepth());
+        return writer;
+    }
+
+    // let everything waiting go out, and return what was sent after the first frame.
+    private List<String> drain() {
+        while (!stub.pending.isEmpty()) {
+            stub.complete();
+        }
+        return stub.sent.subList(1, stub.sent.size());
+    }
+
+    @Test
+    public void testOldestChatDroppedForEvent() {
+        SessionWriter writer = full(OverflowPolicy.DROP_OLDEST_CHAT, Kind.CHAT, Kind.CHAT);
+        writer.send(Kind.EVENT, "*", "event");
+        assertEquals(Arrays.asList("CHAT1", "event"), drain());
+        assertFalse(stub.closed);
+    }
+
+    @Test
+    public void testChatDroppedWhenNoChatWaiting() {
+        SessionWriter writer = full(OverflowPolicy.DROP_OLDEST_CHAT, Kind.EVENT, Kind.LOCATION);
+        writer.send(Kind.CHAT, "*", "chat");
+        assertEquals(Arrays.asList("EVENT0", "LOCATION1"), drain());
+        assertFalse(stub.closed);
+    }
+
+    @Test
+    public void testOldestEventDroppedWhenNoChatWaiting() {
+        SessionWriter writer = full(OverflowPolicy.DROP_OLDEST_CHAT, Kind.LOCATION, Kind.EVENT, Kind.EVENT);
+        writer.send(Kind.EXIT, "player", "exit");
+        assertEquals(Arrays.asList("LOCATION0", "EVENT2", "exit"), drain());
+        assertFalse(stub.closed);
+    }
+
+    @Test
+    public void testEventDroppedBehindLocations() {
+        SessionWriter writer = full(OverflowPolicy.DROP_OLDEST_CHAT, Kind.LOCATION, Kind.EXIT);
+        writer.send(Kind.EVENT, "*", "event");
+        assertEquals(Arrays.asList("LOCATION0", "EXIT1"), drain());
+        assertFalse(stub.closed);
+    }
+
+    @Test
+    public void testDisconnectWhenNothingCanGo() {
+        SessionWriter writer = full(OverflowPolicy.DROP_OLDEST_CHAT, Kind.LOCATION, Kind.EXIT);
+        writer.send(Kind.LOCATION, "player", "location");
+        assertTrue(stub.closed);
+        assertEquals(0, writer.getQueueDepth());
+    }
+
+    @Test
+    public void testCoalesceLocation() {
+        SessionWriter writer = full(OverflowPolicy.COALESCE, Kind.LOCATION, Kind.CHAT);
+        writer.send(Kind.LOCATION, "player", "location");
+        assertEquals(Arrays.asList("CHAT1", "location"), drain());
+        assertFalse(stub.closed);
+    }
+
+    @Test
+    public void testBatchHeldUntilWindowCloses() {
+        StubScheduler window = new StubScheduler();
+        SessionWriter writer = new SessionWriter(stub.session, 8, OverflowPolicy.DROP_OLDEST_CHAT, 50,
+                window.scheduler);
+        writer.send(Kind.EVENT, "*", "one");
+        writer.send(Kind.CHAT, "*", "two");
+        writer.send(Kind.EXIT, "player", "three");
+        assertTrue(stub.sent.isEmpty());
+        assertEquals(1, window.tasks.size());
+
+        window.run();
+        assertEquals(Arrays.asList("one"), stub.sent);
+        while (!stub.pending.isEmpty()) {
+            stub.complete();
+        }
+        assertEquals(Arrays.asList("one", "two", "three"), stub.sent);
+        assertEquals(0, writer.getQueueDepth());
+        // we pace the burst ourselves, the container's batching stays off.
+        assertFalse(stub.batching);
+    }
+
+    @Test
+    public void testFlushEndsWindowEarly() {
+        StubScheduler window = new StubScheduler();
+        SessionWriter writer = new SessionWriter(stub.session, 8, OverflowPolicy.DROP_OLDEST_CHAT, 50,
+                window.scheduler);
+        writer.send(Kind.EVENT, "*", "one");
+        writer.send(Kind.EVENT, "*", "two");
+        writer.flush();
+        stub.complete();
+        // frames arriving mid burst join the end of it.
+        writer.send(Kind.EVENT, "*", "three");
+        stub.complete();
+        stub.complete();
+        assertEquals(Arrays.asList("one", "two", "three"), stub.sent);
+        assertTrue(stub.pending.isEmpty());
+
+        // the window closing late finds nothing left to send.
+        window.run();
+        assertEquals(3, stub.sent.size());
+        assertTrue(window.tasks.isEmpty());
+
+        // and the next frame starts a new window.
+        writer.send(Kind.EVENT, "*", "four");
+        assertEquals(1, window.tasks.size());
+        window.run();
+        assertEquals("four", stub.sent.get(3));
+    }
+
+    @Test
+    public void testReleaseMergesMissed() {
+        SessionWriter writer = new SessionWriter(stub.session, 8, OverflowPolicy.DROP_OLDEST_CHAT);
+        writer.hold();
+        writer.send(3, Kind.EVENT, "*", "three");
+        writer.send(5, Kind.EVENT, "*", "five");
+        writer.send(7, Kind.EVENT, "*", "seven");
+        assertTrue(stub.sent.isEmpty());
+
+        ReplayBuffer buffer = new ReplayBuffer(8);
+        for (int b = 4; b <= 6; b++) {
+            buffer.record(b, Kind.EVENT, "*", "replayed" + b).sent();
+        }
+        assertTrue(writer.release(3, buffer.since(3, 6, "player")));
+        drain();
+        // three was seen before, five was held already.
+        assertEquals(Arrays.asList("replayed4", "five", "replayed6", "seven"), stub.sent);
+        // released once only.
+        assertFalse(writer.release(3, buffer.since(3, 6, "player")));
+    }
+
+    @Test
+    public void testReleaseTooManyMissed() {
+        SessionWriter writer = new SessionWriter(stub.session, 2, OverflowPolicy.DROP_OLDEST_CHAT);
+        writer.hold();
+        writer.send(4, Kind.EVENT, "*", "four");
+        ReplayBuffer buffer = new ReplayBuffer(8);
+        for (int b = 1; b <= 3; b++) {
+            buffer.record(b, Kind.EVENT, "*", "replayed" + b).sent();
+        }
+        assertFalse(writer.release(0, buffer.since(0, 3, "player")));
+        drain();
+        assertEquals(Arrays.asList("four"), stub.sent);
+    }
+
+    @Test
+    public void testDisconnectPolicy() {
+        SessionWriter writer = full(OverflowPolicy.DISCONNECT, Kind.CHAT);
+        writer.send(Kind.CHAT, "*", "chat");
+        assertTrue(stub.closed);
+    }
+}